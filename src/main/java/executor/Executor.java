@@ -1,10 +1,19 @@
 package executor;
 
 import filters.*;
+import helpers.BaseMath;
+import helpers.ImageCache;
 import helpers.ImageRW;
+import helpers.ParallelRuntime;
+import helpers.ResultCache;
+import model.GrayImage;
+import model.GridPool;
 import model.Image;
+import model.MaskImage;
+import model.TiledImage;
 
 import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
@@ -14,30 +23,59 @@ import java.util.concurrent.*;
 public class Executor {
     public static final boolean SAVE_IMAGES = false;
     public static final boolean GENERATE_IMAGE = true;
+    public static final boolean GENERATE_TILED = false;
     public static final int STEPS_COUNT = 1;
     public static final int[] STEPS = getSteps();
     public static final long TIMEOUT = 600;
     public static final TimeUnit TIME_UNIT = TimeUnit.SECONDS;
-    public static final int CPU_AVAILABLE_PROCESSORS = Runtime.getRuntime().availableProcessors();
+    public static final int CPU_AVAILABLE_PROCESSORS = ParallelRuntime.getParallelism();
     public static final int GPU_AVAILABLE_PROCESSORS = 32;
+    public static final double ALLOCATION_LIMIT = 0.5;
+    // per call setup (row buffers, tasks, kernels) that does not grow with the pixel count
+    public static final long ALLOCATION_OVERHEAD = 1L << 18;
+    // pixels filtered before measuring, so the loops are compiled (interpreted Vector API code boxes every vector)
+    public static final long ALLOCATION_WARMUP_PIXELS = 1L << 23;
+    // the Vector API backends need --add-modules jdk.incubator.vector at run time, without it they are skipped
+    public static final boolean VECTOR_AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
     public static Geometric geometricSeq = new GeometricSeq();
     public static Geometric geometricParCPU = new GeometricParCPU();
     public static Geometric geometricParGPU = new GeometricParGPU();
     public static Color colorSeq = new ColorSeq();
     public static Color colorParCPU = new ColorParCPU();
     public static Color colorParGPU = new ColorParGPU();
+    private static Geometric geometricVector;
+    private static Color colorVector;
+
+    /**
+     * Created on first use, so Executor loads without the incubator module.
+     */
+    public static synchronized Geometric getGeometricVector() {
+        if (geometricVector == null) {
+            geometricVector = new GeometricVector();
+        }
+        return geometricVector;
+    }
+
+    public static synchronized Color getColorVector() {
+        if (colorVector == null) {
+            colorVector = new ColorVector();
+        }
+        return colorVector;
+    }
 
     private static long scaling(String taskName, Image image, Geometric geometric, String saveDir) {
         taskName = new Exception().getStackTrace()[0].getMethodName() + taskName;
         List<Image> results = new ArrayList<>();
         System.out.println("INFO " + taskName + " started...");
+        ParallelRuntime.resetStats();
+        GridPool.resetStats();
         long startTime = System.currentTimeMillis();
         try {
             for (final int i : STEPS) {
                 if (SAVE_IMAGES) {
                     results.add(geometric.scaling(image, (double) i / 100, (double) 100 / i));
                 } else {
-                    geometric.scaling(image, (double) i / 100, (double) 100 / i);
+                    geometric.scaling(image, (double) i / 100, (double) 100 / i).release();
                 }
             }
         } catch (Exception e) {
@@ -47,6 +85,8 @@ public class Executor {
         long endTime = System.currentTimeMillis();
         long timeDelta = endTime - startTime;
         System.out.println("INFO: " + taskName + " completed in " + timeDelta + " ms");
+        System.out.println("INFO: " + taskName + " runtime: " + ParallelRuntime.stats());
+        System.out.println("INFO: " + taskName + " grid pool: " + GridPool.stats());
         if (SAVE_IMAGES) {
             ImageRW.saveImagesAsGif(results, saveDir, taskName);
         }
@@ -59,6 +99,8 @@ public class Executor {
         ExecutorService executorService = Executors.newFixedThreadPool(CPU_AVAILABLE_PROCESSORS);
         boolean isCompleted = false;
         System.out.println("INFO " + taskName + " started...");
+        ParallelRuntime.resetStats();
+        GridPool.resetStats();
         long startTime = System.currentTimeMillis();
         try {
             for (final int i : STEPS) {
@@ -68,7 +110,7 @@ public class Executor {
                     ));
                 } else {
                     executorService.submit(() ->
-                            geometric.scaling(image, (double) i / 100, (double) 100 / i)
+                            geometric.scaling(image, (double) i / 100, (double) 100 / i).release()
                     );
                 }
             }
@@ -85,6 +127,8 @@ public class Executor {
         long endTime = System.currentTimeMillis();
         long timeDelta = endTime - startTime;
         System.out.println("INFO: " + taskName + " completed in " + timeDelta + " ms");
+        System.out.println("INFO: " + taskName + " runtime: " + ParallelRuntime.stats());
+        System.out.println("INFO: " + taskName + " grid pool: " + GridPool.stats());
         if (SAVE_IMAGES) {
             ImageRW.saveImagesAsGif(ImageRW.imagesFromFuture(results), saveDir, taskName);
         }
@@ -95,6 +139,8 @@ public class Executor {
         taskName = new Exception().getStackTrace()[0].getMethodName() + taskName;
         List<Image> results = new ArrayList<>();
         System.out.println("INFO " + taskName + " started...");
+        ParallelRuntime.resetStats();
+        GridPool.resetStats();
         long startTime = System.currentTimeMillis();
         try {
             for (final int i : STEPS) {
@@ -103,7 +149,7 @@ public class Executor {
                 if (SAVE_IMAGES) {
                     results.add(geometric.shearing(image, x, y));
                 } else {
-                    geometric.shearing(image, x, y);
+                    geometric.shearing(image, x, y).release();
                 }
             }
         } catch (Exception e) {
@@ -113,6 +159,8 @@ public class Executor {
         long endTime = System.currentTimeMillis();
         long timeDelta = endTime - startTime;
         System.out.println("INFO: " + taskName + " completed in " + timeDelta + " ms");
+        System.out.println("INFO: " + taskName + " runtime: " + ParallelRuntime.stats());
+        System.out.println("INFO: " + taskName + " grid pool: " + GridPool.stats());
         if (SAVE_IMAGES) {
             ImageRW.saveImagesAsGif(results, saveDir, taskName);
         }
@@ -125,6 +173,8 @@ public class Executor {
         ExecutorService executorService = Executors.newFixedThreadPool(CPU_AVAILABLE_PROCESSORS);
         boolean isCompleted = false;
         System.out.println("INFO " + taskName + " started...");
+        ParallelRuntime.resetStats();
+        GridPool.resetStats();
         long startTime = System.currentTimeMillis();
         try {
             for (final int i : STEPS) {
@@ -136,7 +186,7 @@ public class Executor {
                     ));
                 } else {
                     executorService.submit(() ->
-                            geometric.shearing(image, x, y)
+                            geometric.shearing(image, x, y).release()
                     );
                 }
             }
@@ -153,6 +203,8 @@ public class Executor {
         long endTime = System.currentTimeMillis();
         long timeDelta = endTime - startTime;
         System.out.println("INFO: " + taskName + " completed in " + timeDelta + " ms");
+        System.out.println("INFO: " + taskName + " runtime: " + ParallelRuntime.stats());
+        System.out.println("INFO: " + taskName + " grid pool: " + GridPool.stats());
         if (SAVE_IMAGES) {
             ImageRW.saveImagesAsGif(ImageRW.imagesFromFuture(results), saveDir, taskName);
         }
@@ -163,13 +215,15 @@ public class Executor {
         taskName = new Exception().getStackTrace()[0].getMethodName() + taskName;
         List<Image> results = new ArrayList<>();
         System.out.println("INFO " + taskName + " started...");
+        ParallelRuntime.resetStats();
+        GridPool.resetStats();
         long startTime = System.currentTimeMillis();
         try {
             for (final int i : STEPS) {
                 if (SAVE_IMAGES) {
                     results.add(geometric.rotation(image, i));
                 } else {
-                    geometric.rotation(image, i);
+                    geometric.rotation(image, i).release();
                 }
             }
         } catch (Exception e) {
@@ -179,6 +233,8 @@ public class Executor {
         long endTime = System.currentTimeMillis();
         long timeDelta = endTime - startTime;
         System.out.println("INFO: " + taskName + " completed in " + timeDelta + " ms");
+        System.out.println("INFO: " + taskName + " runtime: " + ParallelRuntime.stats());
+        System.out.println("INFO: " + taskName + " grid pool: " + GridPool.stats());
         if (SAVE_IMAGES) {
             ImageRW.saveImagesAsGif(results, saveDir, taskName);
         }
@@ -191,6 +247,8 @@ public class Executor {
         ExecutorService executorService = Executors.newFixedThreadPool(CPU_AVAILABLE_PROCESSORS);
         boolean isCompleted = false;
         System.out.println("INFO " + taskName + " started...");
+        ParallelRuntime.resetStats();
+        GridPool.resetStats();
         long startTime = System.currentTimeMillis();
         try {
             for (final int i : STEPS) {
@@ -200,7 +258,158 @@ public class Executor {
                     ));
                 } else {
                     executorService.submit(() ->
-                            geometric.rotation(image, i)
+                            geometric.rotation(image, i).release()
+                    );
+                }
+            }
+            executorService.shutdown();
+            isCompleted = executorService.awaitTermination(TIMEOUT, TIME_UNIT);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("WARNING: " + taskName + " gone wrong");
+        }
+        if (!isCompleted) {
+            executorService.shutdownNow();
+            System.out.println("WARNING: " + taskName + " reached timeout");
+        }
+        long endTime = System.currentTimeMillis();
+        long timeDelta = endTime - startTime;
+        System.out.println("INFO: " + taskName + " completed in " + timeDelta + " ms");
+        System.out.println("INFO: " + taskName + " runtime: " + ParallelRuntime.stats());
+        System.out.println("INFO: " + taskName + " grid pool: " + GridPool.stats());
+        if (SAVE_IMAGES) {
+            ImageRW.saveImagesAsGif(ImageRW.imagesFromFuture(results), saveDir, taskName);
+        }
+        return timeDelta;
+    }
+
+    private static long rotationCached(String taskName, Image image, Geometric geometric, String saveDir) {
+        taskName = new Exception().getStackTrace()[0].getMethodName() + taskName;
+        // results of every backend are cached separately, otherwise later backends only time cache hits
+        final String operation = "rotation/" + geometric.getClass().getSimpleName();
+        List<Image> results = new ArrayList<>();
+        System.out.println("INFO " + taskName + " started...");
+        ParallelRuntime.resetStats();
+        GridPool.resetStats();
+        ResultCache.resetStats();
+        long startTime = System.currentTimeMillis();
+        try {
+            for (final int i : STEPS) {
+                if (SAVE_IMAGES) {
+                    results.add(ResultCache.get(image, operation, () -> geometric.rotation(image, i), i));
+                } else {
+                    ResultCache.get(image, operation, () -> geometric.rotation(image, i), i).release();
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("WARNING: " + taskName + " gone wrong");
+        }
+        long endTime = System.currentTimeMillis();
+        long timeDelta = endTime - startTime;
+        System.out.println("INFO: " + taskName + " completed in " + timeDelta + " ms");
+        System.out.println("INFO: " + taskName + " runtime: " + ParallelRuntime.stats());
+        System.out.println("INFO: " + taskName + " grid pool: " + GridPool.stats());
+        System.out.println("INFO: " + taskName + " result cache: " + ResultCache.stats());
+        if (SAVE_IMAGES) {
+            ImageRW.saveImagesAsGif(results, saveDir, taskName);
+        }
+        return timeDelta;
+    }
+
+    private static long rotationCachedParCPUH(Image image, Geometric geometric, String saveDir) {
+        String taskName = new Exception().getStackTrace()[0].getMethodName();
+        final String operation = "rotation/" + geometric.getClass().getSimpleName();
+        List<Future<Image>> results = new ArrayList<>();
+        ExecutorService executorService = Executors.newFixedThreadPool(CPU_AVAILABLE_PROCESSORS);
+        boolean isCompleted = false;
+        System.out.println("INFO " + taskName + " started...");
+        ParallelRuntime.resetStats();
+        GridPool.resetStats();
+        ResultCache.resetStats();
+        long startTime = System.currentTimeMillis();
+        try {
+            for (final int i : STEPS) {
+                if (SAVE_IMAGES) {
+                    results.add(executorService.submit(() ->
+                            ResultCache.get(image, operation, () -> geometric.rotation(image, i), i)
+                    ));
+                } else {
+                    executorService.submit(() ->
+                            ResultCache.get(image, operation, () -> geometric.rotation(image, i), i).release()
+                    );
+                }
+            }
+            executorService.shutdown();
+            isCompleted = executorService.awaitTermination(TIMEOUT, TIME_UNIT);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("WARNING: " + taskName + " gone wrong");
+        }
+        if (!isCompleted) {
+            executorService.shutdownNow();
+            System.out.println("WARNING: " + taskName + " reached timeout");
+        }
+        long endTime = System.currentTimeMillis();
+        long timeDelta = endTime - startTime;
+        System.out.println("INFO: " + taskName + " completed in " + timeDelta + " ms");
+        System.out.println("INFO: " + taskName + " runtime: " + ParallelRuntime.stats());
+        System.out.println("INFO: " + taskName + " grid pool: " + GridPool.stats());
+        System.out.println("INFO: " + taskName + " result cache: " + ResultCache.stats());
+        if (SAVE_IMAGES) {
+            ImageRW.saveImagesAsGif(ImageRW.imagesFromFuture(results), saveDir, taskName);
+        }
+        return timeDelta;
+    }
+
+    private static long rotationPipeline(String taskName, Image image, Geometric geometric, String saveDir) {
+        taskName = new Exception().getStackTrace()[0].getMethodName() + taskName;
+        List<Image> results = new ArrayList<>();
+        System.out.println("INFO " + taskName + " started...");
+        ParallelRuntime.resetStats();
+        GridPool.resetStats();
+        long startTime = System.currentTimeMillis();
+        try {
+            for (final int i : STEPS) {
+                if (SAVE_IMAGES) {
+                    results.add(new GeometricPipeline(image).rotation(i).apply(geometric));
+                } else {
+                    new GeometricPipeline(image).rotation(i).apply(geometric).release();
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("WARNING: " + taskName + " gone wrong");
+        }
+        long endTime = System.currentTimeMillis();
+        long timeDelta = endTime - startTime;
+        System.out.println("INFO: " + taskName + " completed in " + timeDelta + " ms");
+        System.out.println("INFO: " + taskName + " runtime: " + ParallelRuntime.stats());
+        System.out.println("INFO: " + taskName + " grid pool: " + GridPool.stats());
+        if (SAVE_IMAGES) {
+            ImageRW.saveImagesAsGif(results, saveDir, taskName);
+        }
+        return timeDelta;
+    }
+
+    private static long rotationPipelineParCPUH(Image image, Geometric geometric, String saveDir) {
+        String taskName = new Exception().getStackTrace()[0].getMethodName();
+        List<Future<Image>> results = new ArrayList<>();
+        ExecutorService executorService = Executors.newFixedThreadPool(CPU_AVAILABLE_PROCESSORS);
+        boolean isCompleted = false;
+        System.out.println("INFO " + taskName + " started...");
+        ParallelRuntime.resetStats();
+        GridPool.resetStats();
+        long startTime = System.currentTimeMillis();
+        try {
+            for (final int i : STEPS) {
+                if (SAVE_IMAGES) {
+                    results.add(executorService.submit(() ->
+                            new GeometricPipeline(image).rotation(i).apply(geometric)
+                    ));
+                } else {
+                    executorService.submit(() ->
+                            new GeometricPipeline(image).rotation(i).apply(geometric).release()
                     );
                 }
             }
@@ -217,6 +426,8 @@ public class Executor {
         long endTime = System.currentTimeMillis();
         long timeDelta = endTime - startTime;
         System.out.println("INFO: " + taskName + " completed in " + timeDelta + " ms");
+        System.out.println("INFO: " + taskName + " runtime: " + ParallelRuntime.stats());
+        System.out.println("INFO: " + taskName + " grid pool: " + GridPool.stats());
         if (SAVE_IMAGES) {
             ImageRW.saveImagesAsGif(ImageRW.imagesFromFuture(results), saveDir, taskName);
         }
@@ -227,13 +438,15 @@ public class Executor {
         taskName = new Exception().getStackTrace()[0].getMethodName() + taskName;
         List<Image> results = new ArrayList<>();
         System.out.println("INFO " + taskName + " started...");
+        ParallelRuntime.resetStats();
+        GridPool.resetStats();
         long startTime = System.currentTimeMillis();
         try {
             for (Image image : images) {
                 if (SAVE_IMAGES) {
                     results.add(color.grayscale(image));
                 } else {
-                    color.grayscale(image);
+                    color.grayscale(image).release();
                 }
             }
         } catch (Exception e) {
@@ -243,6 +456,8 @@ public class Executor {
         long endTime = System.currentTimeMillis();
         long timeDelta = endTime - startTime;
         System.out.println("INFO: " + taskName + " completed in " + timeDelta + " ms");
+        System.out.println("INFO: " + taskName + " runtime: " + ParallelRuntime.stats());
+        System.out.println("INFO: " + taskName + " grid pool: " + GridPool.stats());
         if (SAVE_IMAGES) {
             ImageRW.saveImages(results, saveDir, taskName);
         }
@@ -255,6 +470,8 @@ public class Executor {
         ExecutorService executorService = Executors.newFixedThreadPool(CPU_AVAILABLE_PROCESSORS);
         boolean isCompleted = false;
         System.out.println("INFO " + taskName + " started...");
+        ParallelRuntime.resetStats();
+        GridPool.resetStats();
         long startTime = System.currentTimeMillis();
         try {
             for (Image image : images) {
@@ -264,7 +481,7 @@ public class Executor {
                     ));
                 } else {
                     executorService.submit(() ->
-                            color.grayscale(image)
+                            color.grayscale(image).release()
                     );
                 }
             }
@@ -281,23 +498,68 @@ public class Executor {
         long endTime = System.currentTimeMillis();
         long timeDelta = endTime - startTime;
         System.out.println("INFO: " + taskName + " completed in " + timeDelta + " ms");
+        System.out.println("INFO: " + taskName + " runtime: " + ParallelRuntime.stats());
+        System.out.println("INFO: " + taskName + " grid pool: " + GridPool.stats());
         if (SAVE_IMAGES) {
             ImageRW.saveImages(ImageRW.imagesFromFuture(results), saveDir, taskName);
         }
         return timeDelta;
     }
 
+    private static long grayscaleBatch(String imagesDir, Color color, String saveDir) {
+        String taskName = new Exception().getStackTrace()[0].getMethodName();
+        System.out.println("INFO " + taskName + " started...");
+        ParallelRuntime.resetStats();
+        GridPool.resetStats();
+        long startTime = System.currentTimeMillis();
+        try {
+            ImageRW.processImages(imagesDir, saveDir, taskName, color::grayscale);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("WARNING: " + taskName + " gone wrong");
+        }
+        long endTime = System.currentTimeMillis();
+        long timeDelta = endTime - startTime;
+        System.out.println("INFO: " + taskName + " completed in " + timeDelta + " ms");
+        System.out.println("INFO: " + taskName + " runtime: " + ParallelRuntime.stats());
+        System.out.println("INFO: " + taskName + " grid pool: " + GridPool.stats());
+        return timeDelta;
+    }
+
+    private static long cropBatch(String imagesDir, Geometric geometric, String saveDir) {
+        String taskName = new Exception().getStackTrace()[0].getMethodName();
+        System.out.println("INFO " + taskName + " started...");
+        ParallelRuntime.resetStats();
+        GridPool.resetStats();
+        long startTime = System.currentTimeMillis();
+        try {
+            // crop returns a view of the decoded image, so the batch must keep the source until it is encoded
+            ImageRW.processImages(imagesDir, saveDir, taskName, image -> geometric.crop(image, image.w - 10, image.h));
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("WARNING: " + taskName + " gone wrong");
+        }
+        long endTime = System.currentTimeMillis();
+        long timeDelta = endTime - startTime;
+        System.out.println("INFO: " + taskName + " completed in " + timeDelta + " ms");
+        System.out.println("INFO: " + taskName + " runtime: " + ParallelRuntime.stats());
+        System.out.println("INFO: " + taskName + " grid pool: " + GridPool.stats());
+        return timeDelta;
+    }
+
     private static long redMask(String taskName, List<Image> images, Color color, String saveDir) {
         taskName = new Exception().getStackTrace()[0].getMethodName() + taskName;
         List<Image> results = new ArrayList<>();
         System.out.println("INFO " + taskName + " started...");
+        ParallelRuntime.resetStats();
+        GridPool.resetStats();
         long startTime = System.currentTimeMillis();
         try {
             for (Image image : images) {
                 if (SAVE_IMAGES) {
                     results.add(color.redMask(image));
                 } else {
-                    color.redMask(image);
+                    color.redMask(image).release();
                 }
             }
         } catch (Exception e) {
@@ -307,6 +569,8 @@ public class Executor {
         long endTime = System.currentTimeMillis();
         long timeDelta = endTime - startTime;
         System.out.println("INFO: " + taskName + " completed in " + timeDelta + " ms");
+        System.out.println("INFO: " + taskName + " runtime: " + ParallelRuntime.stats());
+        System.out.println("INFO: " + taskName + " grid pool: " + GridPool.stats());
         if (SAVE_IMAGES) {
             ImageRW.saveImages(results, saveDir, taskName);
         }
@@ -319,6 +583,8 @@ public class Executor {
         ExecutorService executorService = Executors.newFixedThreadPool(CPU_AVAILABLE_PROCESSORS);
         boolean isCompleted = false;
         System.out.println("INFO " + taskName + " started...");
+        ParallelRuntime.resetStats();
+        GridPool.resetStats();
         long startTime = System.currentTimeMillis();
         try {
             for (Image image : images) {
@@ -328,7 +594,7 @@ public class Executor {
                     ));
                 } else {
                     executorService.submit(() ->
-                            color.redMask(image)
+                            color.redMask(image).release()
                     );
                 }
             }
@@ -345,21 +611,256 @@ public class Executor {
         long endTime = System.currentTimeMillis();
         long timeDelta = endTime - startTime;
         System.out.println("INFO: " + taskName + " completed in " + timeDelta + " ms");
+        System.out.println("INFO: " + taskName + " runtime: " + ParallelRuntime.stats());
+        System.out.println("INFO: " + taskName + " grid pool: " + GridPool.stats());
         if (SAVE_IMAGES) {
             ImageRW.saveImages(ImageRW.imagesFromFuture(results), saveDir, taskName);
         }
         return timeDelta;
     }
 
+    private static long grayscaleRedMask(String taskName, List<Image> images, Color color, String saveDir) {
+        taskName = new Exception().getStackTrace()[0].getMethodName() + taskName;
+        List<Image> results = new ArrayList<>();
+        System.out.println("INFO " + taskName + " started...");
+        ParallelRuntime.resetStats();
+        GridPool.resetStats();
+        long startTime = System.currentTimeMillis();
+        try {
+            for (Image image : images) {
+                if (SAVE_IMAGES) {
+                    results.addAll(new ColorPipeline().grayscale().redMask().apply(image, color));
+                } else {
+                    for (Image result : new ColorPipeline().grayscale().redMask().apply(image, color)) {
+                        result.release();
+                    }
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("WARNING: " + taskName + " gone wrong");
+        }
+        long endTime = System.currentTimeMillis();
+        long timeDelta = endTime - startTime;
+        System.out.println("INFO: " + taskName + " completed in " + timeDelta + " ms");
+        System.out.println("INFO: " + taskName + " runtime: " + ParallelRuntime.stats());
+        System.out.println("INFO: " + taskName + " grid pool: " + GridPool.stats());
+        if (SAVE_IMAGES) {
+            ImageRW.saveImages(results, saveDir, taskName);
+        }
+        return timeDelta;
+    }
+
+    private static long grayscaleRedMaskParCPUH(List<Image> images, Color color, String saveDir) {
+        String taskName = new Exception().getStackTrace()[0].getMethodName();
+        List<Future<List<Image>>> results = new ArrayList<>();
+        ExecutorService executorService = Executors.newFixedThreadPool(CPU_AVAILABLE_PROCESSORS);
+        boolean isCompleted = false;
+        System.out.println("INFO " + taskName + " started...");
+        ParallelRuntime.resetStats();
+        GridPool.resetStats();
+        long startTime = System.currentTimeMillis();
+        try {
+            for (Image image : images) {
+                if (SAVE_IMAGES) {
+                    results.add(executorService.submit(() ->
+                            new ColorPipeline().grayscale().redMask().apply(image, color)
+                    ));
+                } else {
+                    executorService.submit(() -> {
+                        for (Image result : new ColorPipeline().grayscale().redMask().apply(image, color)) {
+                            result.release();
+                        }
+                    });
+                }
+            }
+            executorService.shutdown();
+            isCompleted = executorService.awaitTermination(TIMEOUT, TIME_UNIT);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("WARNING: " + taskName + " gone wrong");
+        }
+        if (!isCompleted) {
+            executorService.shutdownNow();
+            System.out.println("WARNING: " + taskName + " reached timeout");
+        }
+        long endTime = System.currentTimeMillis();
+        long timeDelta = endTime - startTime;
+        System.out.println("INFO: " + taskName + " completed in " + timeDelta + " ms");
+        System.out.println("INFO: " + taskName + " runtime: " + ParallelRuntime.stats());
+        System.out.println("INFO: " + taskName + " grid pool: " + GridPool.stats());
+        if (SAVE_IMAGES) {
+            List<Image> newImages = new ArrayList<>();
+            for (Future<List<Image>> result : results) {
+                try {
+                    newImages.addAll(result.get());
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    System.out.println("WARNING: cannot get images from Future");
+                }
+            }
+            ImageRW.saveImages(newImages, saveDir, taskName);
+        }
+        return timeDelta;
+    }
+
+    /**
+     * Time per call and max error against Math.sin of every trig implementation in BaseMath.
+     */
+    private static void trigBenchmark() {
+        int count = 1 << 22;
+        double[] radians = new double[count];
+        double[] expected = new double[count];
+        double[] values = new double[count];
+        Random random = new Random(0);
+        for (int i = 0; i < count; i++) {
+            radians[i] = (random.nextDouble() * 2 - 1) * BaseMath.PIx2;
+            expected[i] = Math.sin(radians[i]);
+        }
+        String[] names = new String[]{"Math.sin", "sinTailor", "sinTable", "sinPoly", "sinPrecise"};
+        for (int function = 0; function < names.length; function++) {
+            long timeDelta = Long.MAX_VALUE;
+            for (int run = 0; run < 5; run++) {
+                long startTime = System.nanoTime();
+                trigRun(function, radians, values);
+                timeDelta = Math.min(timeDelta, System.nanoTime() - startTime);
+            }
+            double maxError = 0;
+            for (int i = 0; i < count; i++) {
+                maxError = Math.max(maxError, Math.abs(values[i] - expected[i]));
+            }
+            System.out.println("INFO: " + String.format("%-10s", names[function])
+                    + String.format(" %6.2f ns", (double) timeDelta / count)
+                    + String.format(" max error %.2e", maxError));
+        }
+    }
+
+    private static void trigRun(int function, double[] radians, double[] values) {
+        switch (function) {
+            case 0:
+                for (int i = 0; i < radians.length; i++) {
+                    values[i] = Math.sin(radians[i]);
+                }
+                break;
+            case 1:
+                for (int i = 0; i < radians.length; i++) {
+                    values[i] = BaseMath.sinTailor(radians[i]);
+                }
+                break;
+            case 2:
+                for (int i = 0; i < radians.length; i++) {
+                    values[i] = BaseMath.sinTable(BaseMath.SIN_TABLE, radians[i]);
+                }
+                break;
+            case 3:
+                for (int i = 0; i < radians.length; i++) {
+                    values[i] = BaseMath.sinPoly(radians[i]);
+                }
+                break;
+            default:
+                for (int i = 0; i < radians.length; i++) {
+                    values[i] = BaseMath.sinPrecise(radians[i]);
+                }
+        }
+    }
+
+    /**
+     * Fails if pure and near-primary colors do not get the expected {@link HsvLabels#colors()} labels.
+     */
+    private static void labelCheck() {
+        HsvLabels labels = HsvLabels.colors();
+        int[][] bitmaps = labels.getBitmaps();
+        // color and expected label: 0 none, 1 red, 2 green, 3 blue, 4 skin
+        int[][] cases = new int[][]{
+                {0xFFFF0000, 1}, {0xFFE01010, 1}, {0xFFFF2000, 1}, {0xFFFF0020, 1},
+                {0xFF00FF00, 2}, {0xFF10E010, 2}, {0xFF30FF00, 2}, {0xFF00FF40, 2},
+                {0xFF0000FF, 3}, {0xFF1010E0, 3}, {0xFF0040FF, 3}, {0xFF4000FF, 3},
+                {0xFFE0B090, 4}, {0xFF96C878, 0}, {0xFFFFFFFF, 0}, {0xFF000000, 0}, {0xFF808080, 0}
+        };
+        Image image = new Image("labels", cases.length, 1, BufferedImage.TYPE_INT_ARGB);
+        for (int i = 0; i < cases.length; i++) {
+            image.set(i, 0, cases[i][0]);
+        }
+        List<String> failed = new ArrayList<>();
+        for (Color color : new Color[]{colorSeq, colorParCPU, colorParGPU}) {
+            GrayImage segments = color.segment(image, labels);
+            for (int i = 0; i < cases.length; i++) {
+                int label = HsvLabels.label(bitmaps, cases[i][0]);
+                if (label != cases[i][1] || segments.getGray(i, 0) != cases[i][1]) {
+                    failed.add(color.getClass().getSimpleName() + " " + Integer.toHexString(cases[i][0])
+                            + " -> " + label + "/" + segments.getGray(i, 0) + ", expected " + cases[i][1]);
+                }
+            }
+            segments.release();
+        }
+        image.release();
+        if (!failed.isEmpty()) {
+            throw new IllegalStateException("wrong HSV labels: " + failed);
+        }
+        System.out.println("INFO: HSV labels of " + cases.length + " colors checked");
+    }
+
+    /**
+     * Fails if a color filter allocates more than {@link #ALLOCATION_LIMIT} bytes per pixel beyond its output
+     * and {@link #ALLOCATION_OVERHEAD}.
+     */
+    private static void allocationCheck(Image image) {
+        List<String> failed = new ArrayList<>();
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Color[] colors = VECTOR_AVAILABLE
+                ? new Color[]{colorSeq, colorParCPU, colorParGPU, getColorVector()}
+                : new Color[]{colorSeq, colorParCPU, colorParGPU};
+        String[] names = new String[]{"Seq", "ParCPU", "ParGPU", "Vector"};
+        for (int i = 0; i < colors.length; i++) {
+            Color color = colors[i];
+            for (int op = 0; op < 2; op++) {
+                String taskName = (op == 0 ? "grayscale" : "redMask") + names[i];
+                long outputBytes = op == 0 ? image.size : (long) MaskImage.stride(image.w) * image.h;
+                Image result;
+                for (long pixels = 0; pixels < BaseMath.max(ALLOCATION_WARMUP_PIXELS, image.size); pixels += image.size) {
+                    result = op == 0 ? color.grayscale(image) : color.redMask(image);
+                    result.release();
+                }
+                long before = allocatedBytes(threads);
+                result = op == 0 ? color.grayscale(image) : color.redMask(image);
+                long extraBytes = allocatedBytes(threads) - before - outputBytes;
+                result.release();
+                double perPixel = (double) extraBytes / image.size;
+                System.out.println("INFO: " + taskName + " allocated " + String.format("%.3f", perPixel)
+                        + " bytes per pixel beyond " + result.w + "x" + result.h + " output");
+                if ((double) (extraBytes - ALLOCATION_OVERHEAD) / image.size > ALLOCATION_LIMIT) {
+                    System.out.println("WARNING: " + taskName + " allocates per pixel");
+                    failed.add(taskName);
+                }
+            }
+        }
+        if (!failed.isEmpty()) {
+            throw new IllegalStateException("allocation limit of " + ALLOCATION_LIMIT + " bytes per pixel exceeded by " + failed);
+        }
+    }
+
+    private static long allocatedBytes(com.sun.management.ThreadMXBean threads) {
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += BaseMath.max(bytes, 0);
+        }
+        return total;
+    }
+
     public static void testColor(
             Object object, Method methodBase, Method methodCPUH, List<Image> images, String imageDir
     ) throws Exception {
         String taskNameSeq = "Seq";
         String taskNameCPU = "ParCPU";
         String taskNameGPU = "ParGPU";
+        String taskNameVector = "Vector";
         long timeSeq = (long) methodBase.invoke(object, taskNameSeq, images, colorSeq, imageDir);
         long timeParCPU = (long) methodBase.invoke(object, taskNameCPU, images, colorParCPU, imageDir);
         long timeParGPU = (long) methodBase.invoke(object, taskNameGPU, images, colorParGPU, imageDir);
+        long timeVector = 0;
+        if (VECTOR_AVAILABLE) {
+            timeVector = (long) methodBase.invoke(object, taskNameVector, images, getColorVector(), imageDir);
+        }
         long timeParCPUH = 0;
         double effParCPUH = 0;
         if (images.size() > 1) {
@@ -368,10 +869,16 @@ public class Executor {
         }
         double effParCPU = (double) timeSeq / timeParCPU / CPU_AVAILABLE_PROCESSORS * 100;
         double effParGPU = (double) timeSeq / timeParGPU / GPU_AVAILABLE_PROCESSORS * 100;
+        double effVector = (double) timeSeq / timeVector / CPU_AVAILABLE_PROCESSORS * 100;
 
         System.out.println(methodBase.getName() + " test complete:");
         System.out.println("CPU  efficiency: " + String.format("%05.2f", effParCPU) + "%");
         System.out.println("GPU  efficiency: " + String.format("%05.2f", effParGPU) + "%");
+        if (VECTOR_AVAILABLE) {
+            System.out.println("VEC  efficiency: " + String.format("%05.2f", effVector) + "%");
+        } else {
+            System.out.println("VEC  skipped, run with --add-modules jdk.incubator.vector");
+        }
         if (images.size() > 1) {
             System.out.println("CPUH efficiency: " + String.format("%05.2f", effParCPUH) + "%");
         }
@@ -383,9 +890,14 @@ public class Executor {
         String taskNameSeq = "Seq";
         String taskNameCPU = "ParCPU";
         String taskNameGPU = "ParGPU";
+        String taskNameVector = "Vector";
         long timeSeq = (long) methodBase.invoke(object, taskNameSeq, image, geometricSeq, imageDir);
         long timeParCPU = (long) methodBase.invoke(object, taskNameCPU, image, geometricParCPU, imageDir);
         long timeParGPU = (long) methodBase.invoke(object, taskNameGPU, image, geometricParGPU, imageDir);
+        long timeVector = 0;
+        if (VECTOR_AVAILABLE) {
+            timeVector = (long) methodBase.invoke(object, taskNameVector, image, getGeometricVector(), imageDir);
+        }
         long timeParCPUH = 0;
         double effParCPUH = 0;
         if (STEPS_COUNT > 1) {
@@ -394,10 +906,16 @@ public class Executor {
         }
         double effParCPU = (double) timeSeq / timeParCPU / CPU_AVAILABLE_PROCESSORS * 100;
         double effParGPU = (double) timeSeq / timeParGPU / GPU_AVAILABLE_PROCESSORS * 100;
+        double effVector = (double) timeSeq / timeVector / CPU_AVAILABLE_PROCESSORS * 100;
 
         System.out.println(methodBase.getName() + " test complete:");
         System.out.println("CPU  efficiency: " + String.format("%05.2f", effParCPU) + "%");
         System.out.println("GPU  efficiency: " + String.format("%05.2f", effParGPU) + "%");
+        if (VECTOR_AVAILABLE) {
+            System.out.println("VEC  efficiency: " + String.format("%05.2f", effVector) + "%");
+        } else {
+            System.out.println("VEC  skipped, run with --add-modules jdk.incubator.vector");
+        }
         if (STEPS_COUNT > 1) {
             System.out.println("CPUH efficiency: " + String.format("%05.2f", effParCPUH) + "%");
         }
@@ -405,6 +923,17 @@ public class Executor {
 
     private static Image generateImage(String name, int w, int h) {
         Random random = new Random();
+        if (GENERATE_TILED) {
+            Image image = new TiledImage(name, w, h, BufferedImage.TYPE_INT_ARGB);
+            int[] row = new int[w];
+            for (int y = 0; y < h; y++) {
+                for (int x = 0; x < w; x++) {
+                    row[x] = random.nextInt();
+                }
+                image.setRow(y, 0, w, row, 0);
+            }
+            return image;
+        }
         int gridSize = w * h;
         int[] grid = new int[gridSize];
         for (int i = 0; i < gridSize; i++) {
@@ -437,6 +966,7 @@ public class Executor {
             images = ImageRW.loadImages(imageDir);
             image = images.getFirst();
             images = ImageRW.loadImages(imagesDir);
+            System.out.println("INFO: image cache: " + ImageCache.stats());
         }
 
         // методы для теста обработки преобразований цвета
@@ -444,6 +974,8 @@ public class Executor {
         Method grayscaleCPUH = Executor.class.getDeclaredMethod("grayscaleParCPUH", List.class, Color.class, String.class);
         Method redMaskBase = Executor.class.getDeclaredMethod("redMask", String.class, List.class, Color.class, String.class);
         Method redMaskCPUH = Executor.class.getDeclaredMethod("redMaskParCPUH", List.class, Color.class, String.class);
+        Method grayscaleRedMaskBase = Executor.class.getDeclaredMethod("grayscaleRedMask", String.class, List.class, Color.class, String.class);
+        Method grayscaleRedMaskCPUH = Executor.class.getDeclaredMethod("grayscaleRedMaskParCPUH", List.class, Color.class, String.class);
 
         // методы для теста обработки геометрических преобразований
         Method scalingBase = Executor.class.getDeclaredMethod("scaling", String.class, Image.class, Geometric.class, String.class);
@@ -452,12 +984,24 @@ public class Executor {
         Method shearingCPUH = Executor.class.getDeclaredMethod("shearingParCPUH", Image.class, Geometric.class, String.class);
         Method rotationBase = Executor.class.getDeclaredMethod("rotation", String.class, Image.class, Geometric.class, String.class);
         Method rotationCPUH = Executor.class.getDeclaredMethod("rotationParCPUH", Image.class, Geometric.class, String.class);
+        Method rotationCachedBase = Executor.class.getDeclaredMethod("rotationCached", String.class, Image.class, Geometric.class, String.class);
+        Method rotationCachedCPUH = Executor.class.getDeclaredMethod("rotationCachedParCPUH", Image.class, Geometric.class, String.class);
+        Method rotationPipelineBase = Executor.class.getDeclaredMethod("rotationPipeline", String.class, Image.class, Geometric.class, String.class);
+        Method rotationPipelineCPUH = Executor.class.getDeclaredMethod("rotationPipelineParCPUH", Image.class, Geometric.class, String.class);
 
         // запуск тестов
+//        trigBenchmark();
+        labelCheck();
+        allocationCheck(image);
+//        grayscaleBatch(imagesDir, colorParCPU, imagesDir);
+//        cropBatch(imagesDir, geometricParCPU, imagesDir);
 //        testColor(new Executor(), grayscaleBase, grayscaleCPUH, images, imagesDir);
 //        testColor(new Executor(), redMaskBase, redMaskCPUH, images, imagesDir);
+//        testColor(new Executor(), grayscaleRedMaskBase, grayscaleRedMaskCPUH, images, imagesDir);
 //        testGeometric(new Executor(), scalingBase, scalingCPUH, image, imageDir);
 //        testGeometric(new Executor(), shearingBase, shearingCPUH, image, imageDir);
         testGeometric(new Executor(), rotationBase, rotationCPUH, image, imageDir);
+//        testGeometric(new Executor(), rotationPipelineBase, rotationPipelineCPUH, image, imageDir);
+//        testGeometric(new Executor(), rotationCachedBase, rotationCachedCPUH, image, imageDir);
     }
 }
@@ -1,8 +1,11 @@
 package filters;
 
+import model.GrayImage;
 import model.Image;
+import model.MaskImage;
 
 import java.awt.image.BufferedImage;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 public interface Color {
@@ -15,7 +18,22 @@ public interface Color {
 
     Image redMask(Image image);
 
+    /**
+     * Label map in one pass: every pixel gets 1 + the index of the first label whose ranges contain it, 0 if none.
+     */
+    GrayImage segment(Image image, HsvLabels labels);
+
+    /**
+     * One mask per label in one pass, a pixel is set in every mask whose ranges contain it.
+     */
+    List<MaskImage> segmentMasks(Image image, HsvLabels labels);
+
     Image contrast(Image image, double scale);
 
     Image brightness(Image image, double scale);
+
+    /**
+     * Evaluates all operations of the pipeline in one pass, see {@link ColorPipeline}.
+     */
+    List<Image> apply(Image image, ColorPipeline pipeline);
 }
@@ -1,104 +1,116 @@
 package filters;
 
 import helpers.ColorARGB;
+import helpers.HsvBitmap;
+import helpers.ParallelRuntime;
+import model.GrayImage;
 import model.Image;
+import model.MaskImage;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.List;
 
 public class ColorParCPU implements Color {
     @Override
     public Image grayscale(Image image) {
-        Image newImage = image.copy();
-        newImage.type = TYPE_GRAY;
-        final int gridSize = image.size;
-        final int[] grid = image.grid;
-        int[] newGrid = newImage.grid;
-        final int chunkSize = gridSize / AVAILABLE_PROCESSORS;
-        ExecutorService executorService = Executors.newFixedThreadPool(AVAILABLE_PROCESSORS);
-        boolean isCompleted = false;
-        try {
-            for (int chunkStart = 0; chunkStart < gridSize; chunkStart += chunkSize) {
-                final int start = chunkStart;
-                executorService.submit(() -> {
-                    for (int i = start; i < gridSize && i < start + chunkSize; i++) {
-                        final int color = grid[i];
-                        final int[] argb = ColorARGB.int2argb(color);
-                        newGrid[i] = (int) (0.2989 * argb[1] + 0.5870 * argb[2] + 0.1140 * argb[3]);
-                    }
-                });
+        final int w = image.w;
+        final int h = image.h;
+        GrayImage newImage = new GrayImage(image.name, w, h);
+        ParallelRuntime.parallelFor("grayscale", 0, h, ParallelRuntime.rowGrain(w), (start, end) -> {
+            final int[] row = new int[w];
+            for (int y = start; y < end; y++) {
+                image.getRow(y, 0, w, row, 0);
+                final byte[] pixels = newImage.band(y);
+                final int offset = newImage.offset(y);
+                for (int x = 0; x < w; x++) {
+                    pixels[offset + x] = (byte) ColorARGB.luminance(row[x]);
+                }
             }
-            executorService.shutdown();
-            isCompleted = executorService.awaitTermination(TIMEOUT, TIME_UNIT);
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.out.println("WARNING: grayscale gone wrong");
-        }
-        if (!isCompleted) {
-            executorService.shutdownNow();
-            System.out.println("WARNING: grayscale reached timeout");
-        }
+        });
         return newImage;
     }
 
     @Override
     public Image redMask(Image image) {
-        final int[] red1from = new int[]{0, 75, 50};
-        final int[] red1to = new int[]{8, 255, 255};
-        final int[] red2from = new int[]{172, 75, 50};
-        final int[] red2to = new int[]{180, 255, 255};
+        final int[] bitmap = HsvBitmap.get(HsvBitmap.RED_RANGES);
+        final int w = image.w;
+        final int h = image.h;
+        MaskImage newImage = new MaskImage(image.name, w, h);
+        ParallelRuntime.parallelFor("redMask", 0, h, ParallelRuntime.rowGrain(w), (start, end) -> {
+            final int[] row = new int[w];
+            for (int y = start; y < end; y++) {
+                image.getRow(y, 0, w, row, 0);
+                for (int x = 0; x < w; x++) {
+                    if (HsvBitmap.contains(bitmap, row[x])) {
+                        newImage.setBit(x, y, true);
+                    }
+                }
+            }
+        });
+        return newImage;
+    }
 
-        Image newImage = image.copy();
-        final int gridSize = image.size;
-        final int[] grid = image.grid;
-        int[] newGrid = newImage.grid;
-        final int chunkSize = gridSize / AVAILABLE_PROCESSORS;
-        ExecutorService executorService = Executors.newFixedThreadPool(AVAILABLE_PROCESSORS);
-        boolean isCompleted = false;
-        try {
-            for (int chunkStart = 0; chunkStart < gridSize; chunkStart += chunkSize) {
-                final int start = chunkStart;
-                executorService.submit(() -> {
-                    for (int i = start; i < gridSize && i < start + chunkSize; i++) {
-                        int color = grid[i];
-                        int[] argb = ColorARGB.int2argb(color);
-                        int[] hsv = ColorARGB.argb2hsv(argb);
-                        boolean isRed1 = true;
-                        boolean isRed2 = true;
-                        for (int j = 0; j < 3; j++) {
-                            if (hsv[j] < red1from[j] || red1to[j] < hsv[j]) {
-                                isRed1 = false;
-                            }
-                            if (hsv[j] < red2from[j] || red2to[j] < hsv[j]) {
-                                isRed2 = false;
-                            }
-                        }
-                        if (isRed1 || isRed2) {
-                            newGrid[i] = color;
+    @Override
+    public GrayImage segment(Image image, HsvLabels labels) {
+        final int[][] bitmaps = labels.getBitmaps();
+        final int w = image.w;
+        final int h = image.h;
+        GrayImage newImage = new GrayImage(image.name, w, h);
+        ParallelRuntime.parallelFor("segment", 0, h, ParallelRuntime.rowGrain(w), (start, end) -> {
+            final int[] row = new int[w];
+            for (int y = start; y < end; y++) {
+                image.getRow(y, 0, w, row, 0);
+                final byte[] pixels = newImage.band(y);
+                final int offset = newImage.offset(y);
+                for (int x = 0; x < w; x++) {
+                    pixels[offset + x] = (byte) HsvLabels.label(bitmaps, row[x]);
+                }
+            }
+        });
+        return newImage;
+    }
+
+    @Override
+    public List<MaskImage> segmentMasks(Image image, HsvLabels labels) {
+        final int[][] bitmaps = labels.getBitmaps();
+        final int w = image.w;
+        final int h = image.h;
+        List<MaskImage> newImages = new ArrayList<>();
+        for (int i = 0; i < bitmaps.length; i++) {
+            newImages.add(new MaskImage(image.name, w, h));
+        }
+        ParallelRuntime.parallelFor("segmentMasks", 0, h, ParallelRuntime.rowGrain(w), (start, end) -> {
+            final int[] row = new int[w];
+            for (int y = start; y < end; y++) {
+                image.getRow(y, 0, w, row, 0);
+                for (int x = 0; x < w; x++) {
+                    for (int i = 0; i < bitmaps.length; i++) {
+                        if (HsvBitmap.contains(bitmaps[i], row[x])) {
+                            newImages.get(i).setBit(x, y, true);
                         }
                     }
-                });
+                }
             }
-            executorService.shutdown();
-            isCompleted = executorService.awaitTermination(TIMEOUT, TIME_UNIT);
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.out.println("WARNING: grayscale gone wrong");
-        }
-        if (!isCompleted) {
-            executorService.shutdownNow();
-            System.out.println("WARNING: grayscale reached timeout");
-        }
-        return newImage;
+        });
+        return newImages;
     }
 
     @Override
     public Image contrast(Image image, double scale) {
-        return null;
+        return new ColorPipeline().contrast(scale).argb().apply(image, this).get(0);
     }
 
     @Override
     public Image brightness(Image image, double scale) {
-        return null;
+        return new ColorPipeline().brightness(scale).argb().apply(image, this).get(0);
+    }
+
+    @Override
+    public List<Image> apply(Image image, ColorPipeline pipeline) {
+        List<Image> outputs = pipeline.createOutputs(image);
+        ParallelRuntime.parallelFor("colorPipeline", 0, image.h, ParallelRuntime.rowGrain(image.w),
+                (start, end) -> pipeline.processRows(image, outputs, start, end)
+        );
+        return outputs;
     }
 }
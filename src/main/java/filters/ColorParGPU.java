@@ -3,24 +3,31 @@ package filters;
 import com.aparapi.Kernel;
 import com.aparapi.Range;
 import helpers.BaseMath;
+import helpers.ColorARGB;
+import helpers.HsvBitmap;
+import model.GrayImage;
 import model.Image;
+import model.MaskImage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 
 public class ColorParGPU implements Color {
 
     @Override
     public Image grayscale(Image image) {
-        Image newImage = image.copy();
-        final int gridSize = image.size;
+        image = image.toHeap();
+        GrayImage newImage = new GrayImage(image.name, image.w, image.h);
+        final int gridSize = (int) image.size;
         final int[] grid = image.grid;
-        int[] newGrid = newImage.grid;
-        newImage.type = TYPE_GRAY;
+        final byte[] pixels = newImage.pixels;
         Kernel kernel = new Kernel() {
             @Override
             public void run() {
                 final int i = getGlobalId();
-                final int color = grid[i];
-                newGrid[i] = (int) (0.2989 * ((color >> 16) & 0xFF) + 0.5870 * ((color >> 8) & 0xFF) + 0.1140 * (color & 0xFF));
+                pixels[i] = (byte) ColorARGB.luminance(grid[i]);
             }
         };
         kernel.execute(Range.create(gridSize));
@@ -34,74 +41,213 @@ public class ColorParGPU implements Color {
 
     @Override
     public Image redMask(Image image) {
-        final int[] red1from = new int[]{0, 75, 50};
-        final int[] red1to = new int[]{8, 255, 255};
-        final int[] red2from = new int[]{172, 75, 50};
-        final int[] red2to = new int[]{180, 255, 255};
-
-        Image newImage = image.copy();
-        final int gridSize = image.size;
+        image = image.toHeap();
+        // the bitmap is captured by the kernel and uploaded with the grid
+        final int[] bitmap = HsvBitmap.get(HsvBitmap.RED_RANGES);
+        final int w = image.w;
+        MaskImage newImage = new MaskImage(image.name, w, image.h);
+        final int stride = newImage.stride;
         final int[] grid = image.grid;
-        int[] newGrid = newImage.grid;
+        final byte[] bits = newImage.bits;
+        // one work item per mask byte, so no two items write the same byte
         Kernel kernel = new Kernel() {
             @Override
             public void run() {
                 final int i = getGlobalId();
-                final int color = grid[i];
-                final int red = (color >> 16) & 0xFF;
-                final int green = (color >> 8) & 0xFF;
-                final int blue = color & 0xFF;
-                final double rNorm = (double) red / 255;
-                final double gNorm = (double) green / 255;
-                final double bNorm = (double) blue / 255;
-                final double cMax = BaseMath.max(rNorm, BaseMath.max(gNorm, bNorm));
-                final double cMin = BaseMath.min(rNorm, BaseMath.min(gNorm, bNorm));
-                int h = 0;
-                int s = 0;
-                int v = (int) (cMax * 255);
-                if (cMax != cMin) {
-                    final double c = cMax - cMin;
-                    s = (int) (c / cMax * 100);
-                    final double rc = (cMax - rNorm) / c;
-                    final double gc = (cMax - gNorm) / c;
-                    final double bc = (cMax - bNorm) / c;
-                    if (rNorm == cMax) {
-                        h = (int) (0 + bc - gc);
-                    } else if (gNorm == cMax) {
-                        h = (int) (2 + rc - bc);
-                    } else {
-                        h = (int) (4 + gc - rc);
+                final int x0 = (i % stride) * 8;
+                final int offset = (i / stride) * w + x0;
+                final int count = BaseMath.min(8, w - x0);
+                int mask = 0;
+                for (int k = 0; k < count; k++) {
+                    if (HsvBitmap.contains(bitmap, grid[offset + k])) {
+                        mask |= 0x80 >> k;
                     }
-                    h = (h % 6) * 180;
                 }
-                final int[] hsv = new int[]{h, s, v};
-                boolean isRed1 = true;
-                boolean isRed2 = true;
-                for (int j = 0; j < 3; j++) {
-                    if (hsv[j] < red1from[j] || red1to[j] < hsv[j]) {
-                        isRed1 = false;
-                    }
-                    if (hsv[j] < red2from[j] || red2to[j] < hsv[j]) {
-                        isRed2 = false;
+                bits[i] = (byte) mask;
+            }
+        };
+        kernel.execute(Range.create(bits.length));
+        kernel.dispose();
+        return newImage;
+    }
+
+    /**
+     * Bitmaps of all labels in one array, kernels index label i at i * {@link HsvBitmap#WORDS}.
+     */
+    private static int[] flatBitmaps(HsvLabels labels) {
+        int[][] bitmaps = labels.getBitmaps();
+        int[] flat = new int[bitmaps.length * HsvBitmap.WORDS];
+        for (int i = 0; i < bitmaps.length; i++) {
+            System.arraycopy(bitmaps[i], 0, flat, i * HsvBitmap.WORDS, HsvBitmap.WORDS);
+        }
+        return flat;
+    }
+
+    @Override
+    public GrayImage segment(Image image, HsvLabels labels) {
+        image = image.toHeap();
+        final int labelCount = labels.size();
+        final int words = HsvBitmap.WORDS;
+        final int[] bitmaps = flatBitmaps(labels);
+        GrayImage newImage = new GrayImage(image.name, image.w, image.h);
+        final int[] grid = image.grid;
+        final byte[] pixels = newImage.pixels;
+        Kernel kernel = new Kernel() {
+            @Override
+            public void run() {
+                final int i = getGlobalId();
+                final int rgb = grid[i] & 0xFFFFFF;
+                int label = 0;
+                for (int j = labelCount - 1; j >= 0; j--) {
+                    if (((bitmaps[j * words + (rgb >>> 5)] >>> (rgb & 31)) & 1) != 0) {
+                        label = j + 1;
                     }
                 }
-                if (isRed1 || isRed2) {
-                    newGrid[i] = color;
-                }
+                pixels[i] = (byte) label;
             }
         };
-        kernel.execute(Range.create(gridSize));
+        kernel.execute(Range.create((int) image.size));
         kernel.dispose();
         return newImage;
     }
 
+    @Override
+    public List<MaskImage> segmentMasks(Image image, HsvLabels labels) {
+        image = image.toHeap();
+        final int labelCount = labels.size();
+        final int words = HsvBitmap.WORDS;
+        final int[] bitmaps = flatBitmaps(labels);
+        final int w = image.w;
+        final int h = image.h;
+        final int stride = MaskImage.stride(w);
+        final int maskSize = stride * h;
+        final int[] grid = image.grid;
+        final byte[] maskOut = new byte[BaseMath.max(maskSize * labelCount, 1)];
+        // one work item per mask byte, so no two items write the same byte
+        Kernel kernel = new Kernel() {
+            @Override
+            public void run() {
+                final int i = getGlobalId();
+                final int x0 = (i % stride) * 8;
+                final int offset = (i / stride) * w + x0;
+                final int count = BaseMath.min(8, w - x0);
+                for (int j = 0; j < labelCount; j++) {
+                    int mask = 0;
+                    for (int k = 0; k < count; k++) {
+                        final int rgb = grid[offset + k] & 0xFFFFFF;
+                        if (((bitmaps[j * words + (rgb >>> 5)] >>> (rgb & 31)) & 1) != 0) {
+                            mask |= 0x80 >> k;
+                        }
+                    }
+                    maskOut[j * maskSize + i] = (byte) mask;
+                }
+            }
+        };
+        kernel.execute(Range.create(maskSize));
+        kernel.dispose();
+        List<MaskImage> newImages = new ArrayList<>();
+        for (int j = 0; j < labelCount; j++) {
+            byte[] bits = labelCount == 1 ? maskOut : Arrays.copyOfRange(maskOut, j * maskSize, (j + 1) * maskSize);
+            newImages.add(new MaskImage(image.name, bits, w, h));
+        }
+        return newImages;
+    }
+
     @Override
     public Image contrast(Image image, double scale) {
-        return null;
+        return new ColorPipeline().contrast(scale).argb().apply(image, this).get(0);
     }
 
     @Override
     public Image brightness(Image image, double scale) {
-        return null;
+        return new ColorPipeline().brightness(scale).argb().apply(image, this).get(0);
+    }
+
+    @Override
+    public List<Image> apply(Image image, ColorPipeline pipeline) {
+        Image origin = image;
+        image = image.toHeap();
+        final int w = image.w;
+        final int h = image.h;
+        final int gridSize = (int) image.size;
+        final int stride = MaskImage.stride(w);
+        final int maskSize = stride * h;
+        final int[] ops = pipeline.getOps();
+        final double[] params = pipeline.getParams();
+        int argbCount = 0;
+        int grayCount = 0;
+        int maskCount = 0;
+        for (int op : ops) {
+            if (op == ColorPipeline.OUTPUT_ARGB) {
+                argbCount++;
+            } else if (op == ColorPipeline.OUTPUT_GRAY) {
+                grayCount++;
+            } else if (op == ColorPipeline.OUTPUT_RED_MASK) {
+                maskCount++;
+            }
+        }
+        // outputs of one kind share a flat array, split into images after the kernel
+        final int[] grid = image.grid;
+        final int[] argbOut = new int[BaseMath.max(gridSize * argbCount, 1)];
+        final byte[] grayOut = new byte[BaseMath.max(gridSize * grayCount, 1)];
+        final byte[] maskOut = new byte[BaseMath.max(maskSize * maskCount, 1)];
+        final int[] redBitmap = HsvBitmap.get(HsvBitmap.RED_RANGES);
+        // one work item per mask byte, so no two items write the same byte
+        Kernel kernel = new Kernel() {
+            @Override
+            public void run() {
+                final int i = getGlobalId();
+                final int x0 = (i % stride) * 8;
+                final int offset = (i / stride) * w + x0;
+                final int count = BaseMath.min(8, w - x0);
+                for (int k = 0; k < count; k++) {
+                    int color = grid[offset + k];
+                    int argbIndex = 0;
+                    int grayIndex = 0;
+                    int maskIndex = 0;
+                    for (int j = 0; j < ops.length; j++) {
+                        final int op = ops[j];
+                        if (op == ColorPipeline.BRIGHTNESS) {
+                            color = ColorPipeline.brightness(color, params[j]);
+                        } else if (op == ColorPipeline.CONTRAST) {
+                            color = ColorPipeline.contrast(color, params[j]);
+                        } else if (op == ColorPipeline.OUTPUT_ARGB) {
+                            argbOut[argbIndex * gridSize + offset + k] = color;
+                            argbIndex++;
+                        } else if (op == ColorPipeline.OUTPUT_GRAY) {
+                            grayOut[grayIndex * gridSize + offset + k] = (byte) ColorPipeline.gray(color);
+                            grayIndex++;
+                        } else {
+                            if (HsvBitmap.contains(redBitmap, color)) {
+                                maskOut[maskIndex * maskSize + i] |= (byte) (0x80 >> k);
+                            }
+                            maskIndex++;
+                        }
+                    }
+                }
+            }
+        };
+        kernel.execute(Range.create(maskSize));
+        kernel.dispose();
+        List<Image> outputs = new ArrayList<>();
+        int argbIndex = 0;
+        int grayIndex = 0;
+        int maskIndex = 0;
+        for (int op : ops) {
+            if (op == ColorPipeline.OUTPUT_ARGB) {
+                int[] newGrid = argbCount == 1 ? argbOut : Arrays.copyOfRange(argbOut, argbIndex * gridSize, (argbIndex + 1) * gridSize);
+                outputs.add(origin.fromHeap(new Image(image.name, newGrid, w, h, image.type)));
+                argbIndex++;
+            } else if (op == ColorPipeline.OUTPUT_GRAY) {
+                byte[] pixels = grayCount == 1 ? grayOut : Arrays.copyOfRange(grayOut, grayIndex * gridSize, (grayIndex + 1) * gridSize);
+                outputs.add(new GrayImage(image.name, pixels, w, h));
+                grayIndex++;
+            } else if (op == ColorPipeline.OUTPUT_RED_MASK) {
+                byte[] bits = maskCount == 1 ? maskOut : Arrays.copyOfRange(maskOut, maskIndex * maskSize, (maskIndex + 1) * maskSize);
+                outputs.add(new MaskImage(image.name, bits, w, h));
+                maskIndex++;
+            }
+        }
+        return outputs;
     }
 }
@@ -0,0 +1,180 @@
+package filters;
+
+import helpers.ColorARGB;
+import helpers.HsvBitmap;
+import model.GrayImage;
+import model.Image;
+import model.MaskImage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chain of per-pixel color operations evaluated by {@link Color#apply} in one pass over the source.
+ * Transforms (brightness, contrast) change the running color, outputs (argb, grayscale, redMask) store it,
+ * so several images come out of a single read:
+ * <pre>
+ * List&lt;Image&gt; results = new ColorPipeline().grayscale().brightness(1.2).argb().redMask().apply(image, color);
+ * </pre>
+ * Outputs are returned in the order they were added.
+ */
+public class ColorPipeline {
+    public static final int BRIGHTNESS = 0;
+    public static final int CONTRAST = 1;
+    public static final int OUTPUT_ARGB = 2;
+    public static final int OUTPUT_GRAY = 3;
+    public static final int OUTPUT_RED_MASK = 4;
+
+    private final List<Integer> ops = new ArrayList<>();
+    private final List<Double> params = new ArrayList<>();
+
+    public ColorPipeline brightness(double scale) {
+        return add(BRIGHTNESS, scale);
+    }
+
+    public ColorPipeline contrast(double scale) {
+        return add(CONTRAST, scale);
+    }
+
+    public ColorPipeline argb() {
+        return add(OUTPUT_ARGB, 0);
+    }
+
+    public ColorPipeline grayscale() {
+        return add(OUTPUT_GRAY, 0);
+    }
+
+    public ColorPipeline redMask() {
+        return add(OUTPUT_RED_MASK, 0);
+    }
+
+    private ColorPipeline add(int op, double param) {
+        this.ops.add(op);
+        this.params.add(param);
+        return this;
+    }
+
+    public List<Image> apply(Image image, Color color) {
+        return color.apply(image, this);
+    }
+
+    public int[] getOps() {
+        int[] ops = new int[this.ops.size()];
+        for (int i = 0; i < ops.length; i++) {
+            ops[i] = this.ops.get(i);
+        }
+        return ops;
+    }
+
+    public double[] getParams() {
+        double[] params = new double[this.params.size()];
+        for (int i = 0; i < params.length; i++) {
+            params[i] = this.params.get(i);
+        }
+        return params;
+    }
+
+    /**
+     * Empty outputs in the order of the pipeline, ARGB ones in the storage of the source.
+     */
+    public List<Image> createOutputs(Image image) {
+        List<Image> outputs = new ArrayList<>();
+        for (int op : this.ops) {
+            if (op == OUTPUT_ARGB) {
+                outputs.add(image.copy());
+            } else if (op == OUTPUT_GRAY) {
+                outputs.add(new GrayImage(image.name, image.w, image.h));
+            } else if (op == OUTPUT_RED_MASK) {
+                outputs.add(new MaskImage(image.name, image.w, image.h));
+            }
+        }
+        return outputs;
+    }
+
+    /**
+     * Runs the pipeline over source rows [start, end) into outputs made by {@link #createOutputs}.
+     */
+    public void processRows(Image image, List<Image> outputs, int start, int end) {
+        int[] ops = getOps();
+        double[] params = getParams();
+        int w = image.w;
+        int[] row = new int[w];
+        int[] redBitmap = HsvBitmap.get(HsvBitmap.RED_RANGES);
+        int[][] argbRows = new int[outputs.size()][];
+        int output = 0;
+        for (int op : ops) {
+            if (op == OUTPUT_ARGB) {
+                argbRows[output] = new int[w];
+            }
+            if (op >= OUTPUT_ARGB) {
+                output++;
+            }
+        }
+        for (int y = start; y < end; y++) {
+            image.getRow(y, 0, w, row, 0);
+            for (int x = 0; x < w; x++) {
+                int color = row[x];
+                output = 0;
+                for (int j = 0; j < ops.length; j++) {
+                    int op = ops[j];
+                    if (op == BRIGHTNESS) {
+                        color = brightness(color, params[j]);
+                    } else if (op == CONTRAST) {
+                        color = contrast(color, params[j]);
+                    } else {
+                        if (op == OUTPUT_ARGB) {
+                            argbRows[output][x] = color;
+                        } else if (op == OUTPUT_GRAY) {
+                            ((GrayImage) outputs.get(output)).setGray(x, y, gray(color));
+                        } else if (HsvBitmap.contains(redBitmap, color)) {
+                            ((MaskImage) outputs.get(output)).setBit(x, y, true);
+                        }
+                        output++;
+                    }
+                }
+            }
+            for (int i = 0; i < argbRows.length; i++) {
+                if (argbRows[i] != null) {
+                    outputs.get(i).setRow(y, 0, w, argbRows[i], 0);
+                }
+            }
+        }
+    }
+
+    private static int clamp(double value) {
+        return value < 0 ? 0 : value > 255 ? 255 : (int) value;
+    }
+
+    /**
+     * RGB channels multiplied by scale, alpha kept.
+     */
+    public static int brightness(int color, double scale) {
+        return (color & 0xFF000000)
+                | clamp(((color >> 16) & 0xFF) * scale) << 16
+                | clamp(((color >> 8) & 0xFF) * scale) << 8
+                | clamp((color & 0xFF) * scale);
+    }
+
+    /**
+     * RGB channels stretched around the middle gray by scale, alpha kept.
+     */
+    public static int contrast(int color, double scale) {
+        return (color & 0xFF000000)
+                | clamp((((color >> 16) & 0xFF) - 128) * scale + 128) << 16
+                | clamp((((color >> 8) & 0xFF) - 128) * scale + 128) << 8
+                | clamp(((color & 0xFF) - 128) * scale + 128);
+    }
+
+    public static int gray(int color) {
+        return ColorARGB.luminance(color);
+    }
+
+    /**
+     * The HSV test of {@link Color#redMask}: hue in [0, 8] or [172, 180], saturation >= 75, value >= 50.
+     * Filters look it up in {@link HsvBitmap#RED_RANGES} instead.
+     */
+    public static boolean isRed(int color) {
+        int hsv = ColorARGB.hsv(color);
+        return ColorARGB.inRange(hsv, 0, 75, 50, 8, 255, 255) || ColorARGB.inRange(hsv, 172, 75, 50, 180, 255, 255);
+    }
+}
@@ -0,0 +1,104 @@
+package filters;
+
+import helpers.HsvBitmap;
+import helpers.ParallelRuntime;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+import model.GrayImage;
+import model.Image;
+import model.MaskImage;
+
+/**
+ * {@link ColorParCPU} with grayscale on the Vector API (jdk.incubator.vector, run with
+ * {@code --add-modules jdk.incubator.vector}) and a packed redMask: rows are split between the workers of the shared
+ * pool, every row is processed a vector at a time with a scalar tail. Results are bit-identical to the other
+ * backends.
+ */
+public class ColorVector extends ColorParCPU {
+    // grayscale is computed in doubles, as many int lanes as double lanes
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = VectorSpecies.of(
+            int.class, VectorShape.forBitSize(Math.max(DOUBLES.vectorBitSize() / 2, 64))
+    );
+    private static final VectorSpecies<Byte> BYTES = VectorSpecies.of(
+            byte.class, VectorShape.forBitSize(Math.max(INTS.length() * 8, 64))
+    );
+
+    @Override
+    public Image grayscale(Image image) {
+        final int w = image.w;
+        final int h = image.h;
+        GrayImage newImage = new GrayImage(image.name, w, h);
+        final int lanes = INTS.length();
+        final int bound = INTS.loopBound(w);
+        // the byte vector is wider than the row chunk when there are less than 8 lanes
+        final boolean isFullStore = BYTES.length() == lanes;
+        final VectorMask<Byte> store = BYTES.indexInRange(0, lanes);
+        ParallelRuntime.parallelFor("grayscale", 0, h, ParallelRuntime.rowGrain(w), (start, end) -> {
+            final int[] row = new int[w];
+            for (int y = start; y < end; y++) {
+                image.getRow(y, 0, w, row, 0);
+                final byte[] pixels = newImage.band(y);
+                final int offset = newImage.offset(y);
+                int x = 0;
+                for (; x < bound; x += lanes) {
+                    IntVector color = IntVector.fromArray(INTS, row, x);
+                    DoubleVector red = (DoubleVector) color.lanewise(VectorOperators.LSHR, 16).and(0xFF)
+                            .convertShape(VectorOperators.I2D, DOUBLES, 0);
+                    DoubleVector green = (DoubleVector) color.lanewise(VectorOperators.LSHR, 8).and(0xFF)
+                            .convertShape(VectorOperators.I2D, DOUBLES, 0);
+                    DoubleVector blue = (DoubleVector) color.and(0xFF)
+                            .convertShape(VectorOperators.I2D, DOUBLES, 0);
+                    DoubleVector gray = red.mul(0.2989).add(green.mul(0.5870)).add(blue.mul(0.1140));
+                    ByteVector bytes = (ByteVector) gray.convertShape(VectorOperators.D2I, INTS, 0)
+                            .convertShape(VectorOperators.I2B, BYTES, 0);
+                    if (isFullStore) {
+                        bytes.intoArray(pixels, offset + x);
+                    } else {
+                        bytes.intoArray(pixels, offset + x, store);
+                    }
+                }
+                for (; x < w; x++) {
+                    pixels[offset + x] = (byte) ColorPipeline.gray(row[x]);
+                }
+            }
+        });
+        return newImage;
+    }
+
+    /**
+     * Bitmap lookups packed straight into mask bytes. A gathered version (IntVector.fromArray with an index map)
+     * measured slower than this loop, the lookups are bound by the 2 MB bitmap rather than by arithmetic.
+     */
+    @Override
+    public Image redMask(Image image) {
+        final int[] bitmap = HsvBitmap.get(HsvBitmap.RED_RANGES);
+        final int w = image.w;
+        final int h = image.h;
+        MaskImage newImage = new MaskImage(image.name, w, h);
+        final byte[] bits = newImage.bits;
+        final int stride = newImage.stride;
+        ParallelRuntime.parallelFor("redMask", 0, h, ParallelRuntime.rowGrain(w), (start, end) -> {
+            final int[] row = new int[w];
+            for (int y = start; y < end; y++) {
+                image.getRow(y, 0, w, row, 0);
+                for (int i = 0; i < stride; i++) {
+                    final int x0 = i * 8;
+                    final int count = Math.min(8, w - x0);
+                    int mask = 0;
+                    for (int k = 0; k < count; k++) {
+                        final int rgb = row[x0 + k] & 0xFFFFFF;
+                        mask |= ((bitmap[rgb >>> 5] >>> (rgb & 31)) & 1) << (7 - k);
+                    }
+                    bits[y * stride + i] = (byte) mask;
+                }
+            }
+        });
+        return newImage;
+    }
+}
@@ -9,6 +9,8 @@ public interface Geometric {
     int AVAILABLE_PROCESSORS = Runtime.getRuntime().availableProcessors();
     long TIMEOUT = 600;
     TimeUnit TIME_UNIT = TimeUnit.SECONDS;
+    int NEAREST = 0;
+    int BILINEAR = 1;
 
     Image translation(Image image, int delX, int delY);
 
@@ -16,6 +18,12 @@ public interface Geometric {
 
     Image crop(Image image, int newW, int newH);
 
+    /**
+     * Centered newW x newH copy in one pass: a smaller image is padded with its background, a larger one is cropped
+     * around its center. Rows are copied with System.arraycopy where the storage allows it.
+     */
+    Image letterbox(Image image, int newW, int newH);
+
     Image scaling(Image image, double scaleW, double scaleH);
 
     Image shearing(Image image, double angleX, double angleY);
@@ -29,4 +37,19 @@ public interface Geometric {
     Image rotation270(Image image);
 
     Image rotation(Image image, double angle);
+
+    /**
+     * Rotation around the center into the bounding box of the result, see {@link RotationEngine}.
+     *
+     * @param interpolation {@link #NEAREST} or {@link #BILINEAR}
+     */
+    Image rotation(Image image, double angle, int interpolation);
+
+    /**
+     * One inverse-mapped pass: output pixel (x, y) takes the source pixel nearest to
+     * (m[0] * x + m[1] * y + m[2], m[3] * x + m[4] * y + m[5]) taken at the pixel center. {@code clips} are groups
+     * of 8 values - a matrix from source to stage coordinates and the stage w, h - samples outside of any of them
+     * are left empty. Built by {@link GeometricPipeline}.
+     */
+    Image affine(Image image, double[] matrix, int newW, int newH, double[] clips);
 }
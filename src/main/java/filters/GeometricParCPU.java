@@ -1,55 +1,17 @@
 package filters;
 
 import helpers.BaseMath;
+import helpers.ParallelRuntime;
 import model.Image;
+import model.ImageView;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Arrays;
 
 public class GeometricParCPU implements Geometric {
 
     @Override
     public Image translation(Image image, int delX, int delY) {
-        Image newImage = image.copy();
-        translation(image, newImage, delX, delY);
-        return newImage;
-    }
-
-    private void translation(Image image, Image newImage, int delX, int delY) {
-        int w = image.w;
-        int h = image.h;
-        int gridSize = image.size;
-        int[] grid = image.grid;
-        int[] newGrid = newImage.grid;
-        int chunkSize = gridSize / AVAILABLE_PROCESSORS;
-        ExecutorService executorService = Executors.newFixedThreadPool(AVAILABLE_PROCESSORS);
-        boolean isCompleted = false;
-        try {
-            for (int chunkStart = 0; chunkStart < gridSize; chunkStart += chunkSize) {
-                final int start = chunkStart;
-                executorService.submit(() -> {
-                    for (int i = start; i < gridSize && i < start + chunkSize; i++) {
-                        int x = i % w;
-                        int y = i / w;
-                        int newX = x + delX;
-                        int newY = y + delY;
-                        int j = i + delX + delY * w;
-                        if (0 <= newX && newX < w && 0 <= newY && newY < h) {
-                            newGrid[j] = grid[i];
-                        }
-                    }
-                });
-            }
-            executorService.shutdown();
-            isCompleted = executorService.awaitTermination(TIMEOUT, TIME_UNIT);
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.out.println("WARNING: translation gone wrong");
-        }
-        if (!isCompleted) {
-            executorService.shutdownNow();
-            System.out.println("WARNING: translation reached timeout");
-        }
+        return new ImageView(image, -delX, -delY, image.w, image.h);
     }
 
     @Override
@@ -58,145 +20,83 @@ public class GeometricParCPU implements Geometric {
         int h = image.h;
         int delX = (int) (BaseMath.abs(newW - w) / 2);
         int delY = (int) (BaseMath.abs(newH - h) / 2);
-        Image newImage = new Image(image.name, newW, newH, image.type);
-        int[] newGrid = newImage.grid;
-        int[] grid = image.grid;
-        int gridSize = w * h;
-        int chunkSize = gridSize / AVAILABLE_PROCESSORS;
-        ExecutorService executorService = Executors.newFixedThreadPool(AVAILABLE_PROCESSORS);
-        boolean isCompleted = false;
-        try {
-            for (int chunkStart = 0; chunkStart < gridSize; chunkStart += chunkSize) {
-                final int start = chunkStart;
-                executorService.submit(() -> {
-                    for (int i = start; i < gridSize && i < start + chunkSize; i++) {
-                        int x = i % w;
-                        int y = i / w;
-                        if (x < newW && y < newH) {
-                            int j = x + y * newW;
-                            newGrid[j] = grid[i];
-                        }
-                    }
-                });
-            }
-            executorService.shutdown();
-            isCompleted = executorService.awaitTermination(TIMEOUT, TIME_UNIT);
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.out.println("WARNING: translation gone wrong");
-        }
-        if (!isCompleted) {
-            executorService.shutdownNow();
-            System.out.println("WARNING: translation reached timeout");
-        }
-        return translation(newImage, delX, delY);
+        return translation(crop(image, newW, newH), delX, delY);
     }
 
     @Override
     public Image crop(Image image, int newW, int newH) {
-        Image newImage = new Image(image.name, newW, newH, image.type);
-        crop(image, newImage, newW, newH);
-        return newImage;
+        return new ImageView(image, 0, 0, newW, newH);
     }
 
-    private void crop(Image image, Image newImage, int newW, int newH) {
+    @Override
+    public Image letterbox(Image image, int newW, int newH) {
         int w = image.w;
         int h = image.h;
-        int[] grid = image.grid;
+        int srcX = BaseMath.max((w - newW) / 2, 0);
+        int srcY = BaseMath.max((h - newH) / 2, 0);
+        int dstX = BaseMath.max((newW - w) / 2, 0);
+        int dstY = BaseMath.max((newH - h) / 2, 0);
+        int length = BaseMath.min(w, newW);
+        int rows = BaseMath.min(h, newH);
+        int background = image.background();
+        Image newImage = image.copy(newW, newH);
         int[] newGrid = newImage.grid;
-        int currW = BaseMath.min(w, newW);
-        int currH = BaseMath.min(h, newH);
-        int gridSize = currW * currH;
-        int chunkSize = gridSize / AVAILABLE_PROCESSORS;
-        ExecutorService executorService = Executors.newFixedThreadPool(AVAILABLE_PROCESSORS);
-        boolean isCompleted = false;
-        try {
-            for (int chunkStart = 0; chunkStart < gridSize; chunkStart += chunkSize) {
-                final int start = chunkStart;
-                executorService.submit(() -> {
-                    for (int i = start; i < gridSize && i < start + chunkSize; i++) {
-                        int x = i % currW;
-                        int y = i / currW;
-                        int j = x + y * newW;
-                        int k = x + y * w;
-                        newGrid[j] = grid[k];
+        ParallelRuntime.parallelFor("letterbox", 0, newH, ParallelRuntime.rowGrain(newW), (start, end) -> {
+            int[] row = newGrid != null ? null : new int[newW];
+            if (row != null) {
+                Arrays.fill(row, background);
+            }
+            for (int y = start; y < end; y++) {
+                boolean isInside = y >= dstY && y < dstY + rows;
+                if (newGrid != null) {
+                    if (background != 0) {
+                        Arrays.fill(newGrid, y * newW, (y + 1) * newW, background);
+                    }
+                    if (isInside) {
+                        image.getRow(srcY + y - dstY, srcX, length, newGrid, y * newW + dstX);
                     }
-                });
+                } else {
+                    if (isInside) {
+                        image.getRow(srcY + y - dstY, srcX, length, row, dstX);
+                    }
+                    newImage.setRow(y, 0, newW, row, 0);
+                }
             }
-            executorService.shutdown();
-            isCompleted = executorService.awaitTermination(TIMEOUT, TIME_UNIT);
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.out.println("WARNING: crop gone wrong");
-        }
-        if (!isCompleted) {
-            executorService.shutdownNow();
-            System.out.println("WARNING: crop reached timeout");
-        }
+        });
+        return newImage;
     }
 
-
     @Override
     public Image scaling(Image image, double scaleW, double scaleH) {
         int w = image.w;
         int h = image.h;
-        int[] grid = image.grid;
         int newW = (int) BaseMath.max(scaleW * w, 1);
         int newH = (int) BaseMath.max(scaleH * h, 1);
-        int gridSize = newW * newH;
-        Image newImage = new Image(image.name, newW, newH, image.type);
-        int[] newGrid = newImage.grid;
+        Image newImage = image.copy(newW, newH);
         int maxSize = BaseMath.max(newW, newH);
         int[] rowIndex = new int[maxSize];
         int[] colIndex = new int[maxSize];
-        int chunkSize = maxSize / AVAILABLE_PROCESSORS;
-        ExecutorService executorService = Executors.newFixedThreadPool(AVAILABLE_PROCESSORS);
-        boolean isCompleted = false;
-        try {
-            for (int chunkStart = 0; chunkStart < maxSize; chunkStart += chunkSize) {
-                final int start = chunkStart;
-                executorService.submit(() -> {
-                    for (int i = start; i < maxSize && i < start + chunkSize; i++) {
-                        rowIndex[i] = BaseMath.min((int) BaseMath.round((i + 0.5) / scaleW - 0.5), w - 1);
-                        colIndex[i] = BaseMath.min((int) BaseMath.round((i + 0.5) / scaleH - 0.5), h - 1);
-                    }
-                });
+        ParallelRuntime.parallelFor("scaling", 0, maxSize, (start, end) -> {
+            for (int i = start; i < end; i++) {
+                rowIndex[i] = BaseMath.min((int) BaseMath.round((i + 0.5) / scaleW - 0.5), w - 1);
+                colIndex[i] = BaseMath.min((int) BaseMath.round((i + 0.5) / scaleH - 0.5), h - 1);
             }
-            executorService.shutdown();
-            isCompleted = executorService.awaitTermination(TIMEOUT, TIME_UNIT);
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.out.println("WARNING: scaling gone wrong");
-        }
-        if (!isCompleted) {
-            executorService.shutdownNow();
-            System.out.println("WARNING: scaling reached timeout");
-        }
-        int chunkSize2 = gridSize / AVAILABLE_PROCESSORS;
-        executorService = Executors.newFixedThreadPool(AVAILABLE_PROCESSORS);
-        isCompleted = false;
-        try {
-            for (int chunkStart = 0; chunkStart < gridSize; chunkStart += chunkSize2) {
-                final int start = chunkStart;
-                executorService.submit(() -> {
-                    for (int i = start; i < gridSize && i < start + chunkSize2; i++) {
-                        int x = i % newW;
-                        int y = i / newW;
-                        int j = rowIndex[x] + colIndex[y] * w;
-                        newGrid[i] = grid[j];
+        });
+        ParallelRuntime.parallelFor("scaling", 0, newH, ParallelRuntime.rowGrain(newW), (start, end) -> {
+            int[] row = new int[w];
+            int[] newRow = new int[newW];
+            int currY = -1;
+            for (int y = start; y < end; y++) {
+                if (colIndex[y] != currY) {
+                    currY = colIndex[y];
+                    image.getRow(currY, 0, w, row, 0);
+                    for (int x = 0; x < newW; x++) {
+                        newRow[x] = row[rowIndex[x]];
                     }
-                });
+                }
+                newImage.setRow(y, 0, newW, newRow, 0);
             }
-            executorService.shutdown();
-            isCompleted = executorService.awaitTermination(TIMEOUT, TIME_UNIT);
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.out.println("WARNING: scaling gone wrong");
-        }
-        if (!isCompleted) {
-            executorService.shutdownNow();
-            System.out.println("WARNING: scaling reached timeout");
-        }
+        });
         return newImage;
     }
 
@@ -204,8 +104,8 @@ public class GeometricParCPU implements Geometric {
     public Image shearing(Image image, double angleX, double angleY) {
         double radianX = BaseMath.angle2Radians(angleX);
         double radianY = BaseMath.angle2Radians(angleY);
-        double a = BaseMath.sinTailor(radianX);
-        double b = BaseMath.sinTailor(radianY);
+        double a = BaseMath.sin(radianX);
+        double b = BaseMath.sin(radianY);
         return shearingByK(image, a, b);
     }
 
@@ -213,10 +113,9 @@ public class GeometricParCPU implements Geometric {
     public Image shearingByK(Image image, double a, double b) {
         int w = image.w;
         int h = image.h;
-        int[] grid = image.grid;
         int newW = (int) (w + BaseMath.abs(a) * h);
         int newH = (int) (h + BaseMath.abs(b) * w);
-        Image newImage = new Image(image.name, newW, newH, image.type);
+        Image newImage = image.copy(newW, newH);
         shearingByK(image, newImage, a, b);
         return newImage;
     }
@@ -224,112 +123,59 @@ public class GeometricParCPU implements Geometric {
     private void shearingByK(Image image, Image newImage, double a, double b) {
         int w = image.w;
         int h = image.h;
-        int[] grid = image.grid;
         int newW = (int) (w + BaseMath.abs(a) * h);
         int newH = (int) (h + BaseMath.abs(b) * w);
-        int[] newGrid = newImage.grid;
         int delW = newW - w;
         int delH = newH - h;
-        int gridSize = w * h;
-        int chunkSize = gridSize / AVAILABLE_PROCESSORS;
-        ExecutorService executorService = Executors.newFixedThreadPool(AVAILABLE_PROCESSORS);
-        boolean isCompleted = false;
-        try {
-            for (int chunkStart = 0; chunkStart < gridSize; chunkStart += chunkSize) {
-                final int start = chunkStart;
-                executorService.submit(() -> {
-                    for (int i = start; i < gridSize && i < start + chunkSize; i++) {
-                        int x = i % w;
-                        int y = i / w;
-                        int newX = (int) (x + a * y + (a > 0 ? 0 : delW));
-                        int newY = (int) (b * x + y + (b > 0 ? 0 : delH));
-                        if (0 <= newX && newX < newW && 0 <= newY && newY < newH) {
-                            int j = newX + newY * newW;
-                            int color = grid[i];
-                            newGrid[j] = color;
-                        }
+        ParallelRuntime.parallelFor("shearingByK", 0, h, ParallelRuntime.rowGrain(w), (start, end) -> {
+            int[] row = new int[w];
+            for (int y = start; y < end; y++) {
+                image.getRow(y, 0, w, row, 0);
+                for (int x = 0; x < w; x++) {
+                    int newX = (int) (x + a * y + (a > 0 ? 0 : delW));
+                    int newY = (int) (b * x + y + (b > 0 ? 0 : delH));
+                    if (0 <= newX && newX < newW && 0 <= newY && newY < newH) {
+                        newImage.set(newX, newY, row[x]);
                     }
-                });
+                }
             }
-            executorService.shutdown();
-            isCompleted = executorService.awaitTermination(TIMEOUT, TIME_UNIT);
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.out.println("WARNING: shearingByK gone wrong");
-        }
-        if (!isCompleted) {
-            executorService.shutdownNow();
-            System.out.println("WARNING: shearingByK reached timeout");
-        }
+        });
     }
 
     @Override
     public Image rotation90(Image image) {
         int w = image.w;
         int h = image.h;
-        int gridSize = image.size;
-        int[] grid = image.grid;
-        Image newImage = new Image(image.name, h, w, image.type);
-        int[] newGrid = newImage.grid;
-        int chunkSize = gridSize / AVAILABLE_PROCESSORS;
-        ExecutorService executorService = Executors.newFixedThreadPool(AVAILABLE_PROCESSORS);
-        boolean isCompleted = false;
-        try {
-            for (int chunkStart = 0; chunkStart < gridSize; chunkStart += chunkSize) {
-                final int start = chunkStart;
-                executorService.submit(() -> {
-                    for (int i = start; i < gridSize && i < start + chunkSize; i++) {
-                        int x = i % w;
-                        int y = i / w;
-                        int newX = h - y - 1;
-                        int newY = x;
-                        int j = newX + newY * h;
-                        newGrid[j] = grid[i];
-                    }
-                });
+        Image newImage = image.copy(h, w);
+        ParallelRuntime.parallelFor("rotation90", 0, h, ParallelRuntime.rowGrain(w), (start, end) -> {
+            int[] row = new int[w];
+            for (int y = start; y < end; y++) {
+                image.getRow(y, 0, w, row, 0);
+                int newX = h - y - 1;
+                for (int x = 0; x < w; x++) {
+                    newImage.set(newX, x, row[x]);
+                }
             }
-            executorService.shutdown();
-            isCompleted = executorService.awaitTermination(TIMEOUT, TIME_UNIT);
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.out.println("WARNING: rotation90 gone wrong");
-        }
-        if (!isCompleted) {
-            executorService.shutdownNow();
-            System.out.println("WARNING: rotation90 reached timeout");
-        }
+        });
         return newImage;
     }
 
     @Override
     public Image rotation180(Image image) {
-        int gridSize = image.size;
-        int[] grid = image.grid;
+        int w = image.w;
+        int h = image.h;
         Image newImage = image.copy();
-        int[] newGrid = newImage.grid;
-        int chunkSize = gridSize / AVAILABLE_PROCESSORS;
-        ExecutorService executorService = Executors.newFixedThreadPool(AVAILABLE_PROCESSORS);
-        boolean isCompleted = false;
-        try {
-            for (int chunkStart = 0; chunkStart < gridSize; chunkStart += chunkSize) {
-                final int start = chunkStart;
-                executorService.submit(() -> {
-                    for (int i = start; i < gridSize && i < start + chunkSize; i++) {
-                        int j = gridSize - i - 1;
-                        newGrid[j] = grid[i];
-                    }
-                });
+        ParallelRuntime.parallelFor("rotation180", 0, h, ParallelRuntime.rowGrain(w), (start, end) -> {
+            int[] row = new int[w];
+            int[] newRow = new int[w];
+            for (int y = start; y < end; y++) {
+                image.getRow(y, 0, w, row, 0);
+                for (int x = 0; x < w; x++) {
+                    newRow[w - x - 1] = row[x];
+                }
+                newImage.setRow(h - y - 1, 0, w, newRow, 0);
             }
-            executorService.shutdown();
-            isCompleted = executorService.awaitTermination(TIMEOUT, TIME_UNIT);
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.out.println("WARNING: rotation180 gone wrong");
-        }
-        if (!isCompleted) {
-            executorService.shutdownNow();
-            System.out.println("WARNING: rotation180 reached timeout");
-        }
+        });
         return newImage;
     }
 
@@ -337,37 +183,16 @@ public class GeometricParCPU implements Geometric {
     public Image rotation270(Image image) {
         int w = image.w;
         int h = image.h;
-        int gridSize = image.size;
-        int[] grid = image.grid;
-        Image newImage = new Image(image.name, h, w, image.type);
-        int[] newGrid = newImage.grid;
-        int chunkSize = gridSize / AVAILABLE_PROCESSORS;
-        ExecutorService executorService = Executors.newFixedThreadPool(AVAILABLE_PROCESSORS);
-        boolean isCompleted = false;
-        try {
-            for (int chunkStart = 0; chunkStart < gridSize; chunkStart += chunkSize) {
-                final int start = chunkStart;
-                executorService.submit(() -> {
-                    for (int i = start; i < gridSize && i < start + chunkSize; i++) {
-                        int x = i % w;
-                        int y = i / w;
-                        int newX = y;
-                        int newY = w - x - 1;
-                        int j = newX + newY * h;
-                        newGrid[j] = grid[i];
-                    }
-                });
+        Image newImage = image.copy(h, w);
+        ParallelRuntime.parallelFor("rotation270", 0, h, ParallelRuntime.rowGrain(w), (start, end) -> {
+            int[] row = new int[w];
+            for (int y = start; y < end; y++) {
+                image.getRow(y, 0, w, row, 0);
+                for (int x = 0; x < w; x++) {
+                    newImage.set(y, w - x - 1, row[x]);
+                }
             }
-            executorService.shutdown();
-            isCompleted = executorService.awaitTermination(TIMEOUT, TIME_UNIT);
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.out.println("WARNING: rotation270 gone wrong");
-        }
-        if (!isCompleted) {
-            executorService.shutdownNow();
-            System.out.println("WARNING: rotation270 reached timeout");
-        }
+        });
         return newImage;
     }
 
@@ -389,9 +214,9 @@ public class GeometricParCPU implements Geometric {
 //        }
 //        int w = image.w;
 //        int h = image.h;
-//        double sin = BaseMath.sinTailor(radian);
-//        double cos = BaseMath.cosTailor(radian);
-//        double tgHalfAngle = BaseMath.tgTailor(radian / 2);
+//        double sin = BaseMath.sin(radian);
+//        double cos = BaseMath.cos(radian);
+//        double tgHalfAngle = BaseMath.tg(radian / 2);
 //        int newW = (int) (BaseMath.abs(cos) * w + BaseMath.abs(sin) * h) + 10;
 //        int newH = (int) (BaseMath.abs(cos) * h + BaseMath.abs(sin) * w) + 10;
 //        Image newImage = new Image(image.name, newW, newH, image.type);
@@ -408,36 +233,34 @@ public class GeometricParCPU implements Geometric {
 //    }
     @Override
     public Image rotation(Image image, double angle) {
-        double radian = BaseMath.angle2Radians(angle);
-        if (radian < 0) {
-            radian += BaseMath.PIx2;
-        }
-        if (BaseMath.PId2 <= radian && radian < BaseMath.PI) {
-            image = rotation90(image);
-            radian -= BaseMath.PId2;
-        } else if (BaseMath.PI <= radian && radian < BaseMath.PIx3d2) {
-            image = rotation180(image);
-            radian -= BaseMath.PI;
-        } else if (BaseMath.PIx3d2 <= radian && radian < BaseMath.PIx2) {
-            image = rotation270(image);
-            radian -= BaseMath.PIx3d2;
-        }
-        int w = image.w;
-        int h = image.h;
-        double sin = BaseMath.sinTailor(radian);
-        double cos = BaseMath.cosTailor(radian);
-        double tgHalfAngle = BaseMath.tgTailor(radian / 2);
-        int newW = (int) (BaseMath.abs(cos) * w + BaseMath.abs(sin) * h) + 10;
-        int newH = (int) (BaseMath.abs(cos) * h + BaseMath.abs(sin) * w) + 10;
-        Image newImage = shearingByK(image, -tgHalfAngle, 0);
-        newImage = shearingByK(newImage, 0, sin);
-        newImage = shearingByK(newImage, -tgHalfAngle, 0);
-        int currW = newImage.w;
-        int currH = newImage.h;
-        int delWd2 = (currW - newW) / 2;
-        int delHd2 = (currH - newH) / 2;
-        translation(newImage, newImage, -delWd2, -delHd2);
-        crop(newImage, newImage, newW, newH);
+        return rotation(image, angle, NEAREST);
+    }
+
+    @Override
+    public Image rotation(Image image, double angle, int interpolation) {
+        RotationEngine engine = new RotationEngine(image.w, image.h, angle);
+        int newW = engine.newW;
+        Image newImage = image.copy(newW, engine.newH);
+        ParallelRuntime.parallelFor("rotation", 0, engine.newH, ParallelRuntime.rowGrain(newW), (start, end) -> {
+            int[] row = new int[newW];
+            for (int y = start; y < end; y++) {
+                engine.rotateRow(image, y, row, interpolation);
+                newImage.setRow(y, 0, newW, row, 0);
+            }
+        });
+        return newImage;
+    }
+
+    @Override
+    public Image affine(Image image, double[] matrix, int newW, int newH, double[] clips) {
+        Image newImage = image.copy(newW, newH);
+        ParallelRuntime.parallelFor("affine", 0, newH, ParallelRuntime.rowGrain(newW), (start, end) -> {
+            int[] row = new int[newW];
+            for (int y = start; y < end; y++) {
+                GeometricPipeline.affineRow(image, matrix, clips, y, row);
+                newImage.setRow(y, 0, newW, row, 0);
+            }
+        });
         return newImage;
     }
 }
@@ -4,38 +4,13 @@ import com.aparapi.Kernel;
 import com.aparapi.Range;
 import helpers.BaseMath;
 import model.Image;
+import model.ImageView;
 
 public class GeometricParGPU implements Geometric {
 
     @Override
     public Image translation(Image image, int delX, int delY) {
-        Image newImage = image.copy();
-        translation(image, newImage, delX, delY);
-        return newImage;
-    }
-
-    private void translation(Image image, Image newImage, int delX, int delY) {
-        int w = image.w;
-        int h = image.h;
-        int gridSize = image.size;
-        int[] grid = image.grid;
-        int[] newGrid = newImage.grid;
-        Kernel kernel = new Kernel() {
-            @Override
-            public void run() {
-                int i = getGlobalId();
-                int x = i % w;
-                int y = i / w;
-                int newX = x + delX;
-                int newY = y + delY;
-                int j = i + delX + delY * w;
-                if (0 <= newX && newX < w && 0 <= newY && newY < h) {
-                    newGrid[j] = grid[i];
-                }
-            }
-        };
-        kernel.execute(Range.create(gridSize));
-        kernel.dispose();
+        return new ImageView(image, -delX, -delY, image.w, image.h);
     }
 
     @Override
@@ -44,59 +19,52 @@ public class GeometricParGPU implements Geometric {
         int h = image.h;
         int delX = (int) (BaseMath.abs(newW - w) / 2);
         int delY = (int) (BaseMath.abs(newH - h) / 2);
-        Image newImage = new Image(image.name, newW, newH, image.type);
-        int[] newGrid = newImage.grid;
-        int[] grid = image.grid;
-        int gridSize = w * h;
-        Kernel kernel = new Kernel() {
-            @Override
-            public void run() {
-                int i = getGlobalId();
-                int x = i % w;
-                int y = i / w;
-                if (x < newW && y < newH) {
-                    int j = x + y * newW;
-                    newGrid[j] = grid[i];
-                }
-            }
-        };
-        kernel.execute(Range.create(gridSize));
-        kernel.dispose();
-        return translation(newImage, delX, delY);
+        return translation(crop(image, newW, newH), delX, delY);
     }
 
     @Override
     public Image crop(Image image, int newW, int newH) {
-        Image newImage = new Image(image.name, newW, newH, image.type);
-        crop(image, newImage, newW, newH);
-        return newImage;
+        return new ImageView(image, 0, 0, newW, newH);
     }
 
-    private void crop(Image image, Image newImage, int newW, int newH) {
+    @Override
+    public Image letterbox(Image image, int newW, int newH) {
+        Image origin = image;
+        image = image.toHeap();
         int w = image.w;
         int h = image.h;
         int[] grid = image.grid;
+        int srcX = BaseMath.max((w - newW) / 2, 0);
+        int srcY = BaseMath.max((h - newH) / 2, 0);
+        int dstX = BaseMath.max((newW - w) / 2, 0);
+        int dstY = BaseMath.max((newH - h) / 2, 0);
+        int length = BaseMath.min(w, newW);
+        int rows = BaseMath.min(h, newH);
+        int background = origin.background();
+        Image newImage = new Image(image.name, newW, newH, image.type);
         int[] newGrid = newImage.grid;
-        int currW = BaseMath.min(w, newW);
-        int currH = BaseMath.min(h, newH);
-        int gridSize = currW * currH;
         Kernel kernel = new Kernel() {
             @Override
             public void run() {
                 int i = getGlobalId();
-                int x = i % currW;
-                int y = i / currW;
-                int j = x + y * newW;
-                int k = x + y * w;
-                newGrid[j] = grid[k];
+                int x = i % newW - dstX;
+                int y = i / newW - dstY;
+                if (x >= 0 && x < length && y >= 0 && y < rows) {
+                    newGrid[i] = grid[(y + srcY) * w + x + srcX];
+                } else {
+                    newGrid[i] = background;
+                }
             }
         };
-        kernel.execute(Range.create(gridSize));
+        kernel.execute(Range.create(newW * newH));
         kernel.dispose();
+        return origin.fromHeap(newImage);
     }
 
     @Override
     public Image scaling(Image image, double scaleW, double scaleH) {
+        Image origin = image;
+        image = image.toHeap();
         int w = image.w;
         int h = image.h;
         int[] grid = image.grid;
@@ -127,27 +95,29 @@ public class GeometricParGPU implements Geometric {
         };
         kernel2.execute(Range.create(gridSize));
         kernel2.dispose();
-        return newImage;
+        return origin.fromHeap(newImage);
     }
 
     @Override
     public Image shearing(Image image, double angleX, double angleY) {
         double radianX = BaseMath.angle2Radians(angleX);
         double radianY = BaseMath.angle2Radians(angleY);
-        double a = BaseMath.sinTailor(radianX);
-        double b = BaseMath.sinTailor(radianY);
+        double a = BaseMath.sin(radianX);
+        double b = BaseMath.sin(radianY);
         return shearingByK(image, a, b);
     }
 
     @Override
     public Image shearingByK(Image image, double a, double b) {
+        Image origin = image;
+        image = image.toHeap();
         int w = image.w;
         int h = image.h;
         int newW = (int) (w + BaseMath.abs(a) * h);
         int newH = (int) (h + BaseMath.abs(b) * w);
         Image newImage = new Image(image.name, newW, newH, image.type);
         shearingByK(image, newImage, a, b);
-        return newImage;
+        return origin.fromHeap(newImage);
     }
 
     private void shearingByK(Image image, Image newImage, double a, double b) {
@@ -181,9 +151,11 @@ public class GeometricParGPU implements Geometric {
 
     @Override
     public Image rotation90(Image image) {
+        Image origin = image;
+        image = image.toHeap();
         int w = image.w;
         int h = image.h;
-        int gridSize = image.size;
+        int gridSize = (int) image.size;
         int[] grid = image.grid;
         Image newImage = new Image(image.name, h, w, image.type);
         int[] newGrid = newImage.grid;
@@ -201,12 +173,14 @@ public class GeometricParGPU implements Geometric {
         };
         kernel.execute(Range.create(gridSize));
         kernel.dispose();
-        return newImage;
+        return origin.fromHeap(newImage);
     }
 
     @Override
     public Image rotation180(Image image) {
-        int gridSize = image.size;
+        Image origin = image;
+        image = image.toHeap();
+        int gridSize = (int) image.size;
         int[] grid = image.grid;
         Image newImage = image.copy();
         int[] newGrid = newImage.grid;
@@ -220,14 +194,16 @@ public class GeometricParGPU implements Geometric {
         };
         kernel.execute(Range.create(gridSize));
         kernel.dispose();
-        return newImage;
+        return origin.fromHeap(newImage);
     }
 
     @Override
     public Image rotation270(Image image) {
+        Image origin = image;
+        image = image.toHeap();
         int w = image.w;
         int h = image.h;
-        int gridSize = image.size;
+        int gridSize = (int) image.size;
         int[] grid = image.grid;
         Image newImage = new Image(image.name, h, w, image.type);
         int[] newGrid = newImage.grid;
@@ -245,7 +221,7 @@ public class GeometricParGPU implements Geometric {
         };
         kernel.execute(Range.create(gridSize));
         kernel.dispose();
-        return newImage;
+        return origin.fromHeap(newImage);
     }
 
 //    @Override
@@ -266,9 +242,9 @@ public class GeometricParGPU implements Geometric {
 //        }
 //        int w = image.w;
 //        int h = image.h;
-//        double sin = BaseMath.sinTailor(radian);
-//        double cos = BaseMath.cosTailor(radian);
-//        double tgHalfAngle = BaseMath.tgTailor(radian / 2);
+//        double sin = BaseMath.sin(radian);
+//        double cos = BaseMath.cos(radian);
+//        double tgHalfAngle = BaseMath.tg(radian / 2);
 //        int newW = (int) (BaseMath.abs(cos) * w + BaseMath.abs(sin) * h) + 10;
 //        int newH = (int) (BaseMath.abs(cos) * h + BaseMath.abs(sin) * w) + 10;
 //        Image newImage = new Image(image.name, newW, newH, image.type);
@@ -286,36 +262,111 @@ public class GeometricParGPU implements Geometric {
 
     @Override
     public Image rotation(Image image, double angle) {
-        double radian = BaseMath.angle2Radians(angle);
-        if (radian < 0) {
-            radian += BaseMath.PIx2;
-        }
-        if (BaseMath.PId2 <= radian && radian < BaseMath.PI) {
-            image = rotation90(image);
-            radian -= BaseMath.PId2;
-        } else if (BaseMath.PI <= radian && radian < BaseMath.PIx3d2) {
-            image = rotation180(image);
-            radian -= BaseMath.PI;
-        } else if (BaseMath.PIx3d2 <= radian && radian < BaseMath.PIx2) {
-            image = rotation270(image);
-            radian -= BaseMath.PIx3d2;
-        }
+        return rotation(image, angle, NEAREST);
+    }
+
+    @Override
+    public Image rotation(Image image, double angle, int interpolation) {
+        Image origin = image;
+        image = image.toHeap();
+        RotationEngine engine = new RotationEngine(image.w, image.h, angle);
         int w = image.w;
         int h = image.h;
-        double sin = BaseMath.sinTailor(radian);
-        double cos = BaseMath.cosTailor(radian);
-        double tgHalfAngle = BaseMath.tgTailor(radian / 2);
-        int newW = (int) (BaseMath.abs(cos) * w + BaseMath.abs(sin) * h) + 10;
-        int newH = (int) (BaseMath.abs(cos) * h + BaseMath.abs(sin) * w) + 10;
-        Image newImage = shearingByK(image, -tgHalfAngle, 0);
-        newImage = shearingByK(newImage, 0, sin);
-        newImage = shearingByK(newImage, -tgHalfAngle, 0);
-        int currW = newImage.w;
-        int currH = newImage.h;
-        int delWd2 = (currW - newW) / 2;
-        int delHd2 = (currH - newH) / 2;
-        translation(newImage, newImage, -delWd2, -delHd2);
-        crop(newImage, newImage, newW, newH);
-        return newImage;
+        int newW = engine.newW;
+        int newH = engine.newH;
+        long u0 = engine.u0;
+        long v0 = engine.v0;
+        long uStepX = engine.uStepX;
+        long vStepX = engine.vStepX;
+        long uStepY = engine.uStepY;
+        long vStepY = engine.vStepY;
+        int shift = RotationEngine.FIXED_SHIFT;
+        long half = RotationEngine.FIXED_ONE >> 1;
+        long maxU = (long) w << shift;
+        long maxV = (long) h << shift;
+        boolean bilinear = interpolation == BILINEAR;
+        int background = image.background();
+        Image newImage = new Image(image.name, newW, newH, image.type);
+        int[] grid = image.grid;
+        int[] newGrid = newImage.grid;
+        Kernel kernel = new Kernel() {
+            @Override
+            public void run() {
+                int x = getGlobalId(0);
+                int y = getGlobalId(1);
+                long u = u0 + x * uStepX + y * uStepY;
+                long v = v0 + x * vStepX + y * vStepY;
+                int color = background;
+                if (0 <= u && u < maxU && 0 <= v && v < maxV) {
+                    if (bilinear) {
+                        u -= half;
+                        v -= half;
+                        int x0 = (int) (u >> shift);
+                        int y0 = (int) (v >> shift);
+                        int fx = (int) (u >> (shift - 8)) & 0xFF;
+                        int fy = (int) (v >> (shift - 8)) & 0xFF;
+                        int x1 = min(x0 + 1, w - 1);
+                        int y1 = min(y0 + 1, h - 1);
+                        x0 = max(x0, 0);
+                        y0 = max(y0, 0);
+                        int c00 = grid[y0 * w + x0];
+                        int c01 = grid[y0 * w + x1];
+                        int c10 = grid[y1 * w + x0];
+                        int c11 = grid[y1 * w + x1];
+                        int rb0 = (((c00 & 0xFF00FF) * (256 - fx) + (c01 & 0xFF00FF) * fx) >>> 8) & 0xFF00FF;
+                        int ag0 = (((c00 >>> 8) & 0xFF00FF) * (256 - fx) + ((c01 >>> 8) & 0xFF00FF) * fx) & 0xFF00FF00;
+                        int rb1 = (((c10 & 0xFF00FF) * (256 - fx) + (c11 & 0xFF00FF) * fx) >>> 8) & 0xFF00FF;
+                        int ag1 = (((c10 >>> 8) & 0xFF00FF) * (256 - fx) + ((c11 >>> 8) & 0xFF00FF) * fx) & 0xFF00FF00;
+                        int top = ag0 | rb0;
+                        int bottom = ag1 | rb1;
+                        int rb = (((top & 0xFF00FF) * (256 - fy) + (bottom & 0xFF00FF) * fy) >>> 8) & 0xFF00FF;
+                        int ag = (((top >>> 8) & 0xFF00FF) * (256 - fy) + ((bottom >>> 8) & 0xFF00FF) * fy) & 0xFF00FF00;
+                        color = ag | rb;
+                    } else {
+                        color = grid[(int) (v >> shift) * w + (int) (u >> shift)];
+                    }
+                }
+                newGrid[y * newW + x] = color;
+            }
+        };
+        kernel.execute(Range.create2D(newW, newH));
+        kernel.dispose();
+        return origin.fromHeap(newImage);
+    }
+
+    @Override
+    public Image affine(Image image, double[] matrix, int newW, int newH, double[] clips) {
+        Image origin = image;
+        image = image.toHeap();
+        int w = image.w;
+        int h = image.h;
+        int background = image.background();
+        Image newImage = new Image(image.name, newW, newH, image.type);
+        int[] grid = image.grid;
+        int[] newGrid = newImage.grid;
+        int clipsLength = clips.length;
+        double[] clipsData = clipsLength > 0 ? clips : new double[8];
+        Kernel kernel = new Kernel() {
+            @Override
+            public void run() {
+                int i = getGlobalId();
+                double x = i % newW + 0.5;
+                double y = i / newW + 0.5;
+                double sx = matrix[0] * x + (matrix[1] * y + matrix[2]);
+                double sy = matrix[3] * x + (matrix[4] * y + matrix[5]);
+                boolean inside = 0 <= sx && sx < w && 0 <= sy && sy < h;
+                for (int k = 0; k < clipsLength; k += 8) {
+                    double cx = clipsData[k] * sx + clipsData[k + 1] * sy + clipsData[k + 2];
+                    double cy = clipsData[k + 3] * sx + clipsData[k + 4] * sy + clipsData[k + 5];
+                    if (cx < 0 || clipsData[k + 6] <= cx || cy < 0 || clipsData[k + 7] <= cy) {
+                        inside = false;
+                    }
+                }
+                newGrid[i] = inside ? grid[(int) sy * w + (int) sx] : background;
+            }
+        };
+        kernel.execute(Range.create((int) newImage.size));
+        kernel.dispose();
+        return origin.fromHeap(newImage);
     }
 }
@@ -0,0 +1,174 @@
+package filters;
+
+import helpers.BaseMath;
+import model.Image;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lazy chain of geometric operations composed into one affine matrix and evaluated by
+ * {@link Geometric#affine} in a single inverse-mapped pass over the output, without intermediate images:
+ * <pre>
+ * Image result = new GeometricPipeline(image).rotation(30).scaling(0.5, 0.5).crop(400, 300).apply(geometric);
+ * </pre>
+ * Translation and crop cut the content at their bounds like their {@link Geometric} counterparts,
+ * the other operations size their output to hold it.
+ */
+public class GeometricPipeline {
+    private static final int CLIP_SIZE = 8;
+
+    private final Image image;
+    private final List<double[]> clips = new ArrayList<>();
+    // source -> current stage: x' = m[0] * x + m[1] * y + m[2], y' = m[3] * x + m[4] * y + m[5]
+    private double[] matrix = new double[]{1, 0, 0, 0, 1, 0};
+    private int w;
+    private int h;
+    private boolean clipPending = false;
+
+    public GeometricPipeline(Image image) {
+        this.image = image;
+        this.w = image.w;
+        this.h = image.h;
+    }
+
+    public int getW() {
+        return this.w;
+    }
+
+    public int getH() {
+        return this.h;
+    }
+
+    public GeometricPipeline translation(int delX, int delY) {
+        transform(new double[]{1, 0, delX, 0, 1, delY}, this.w, this.h);
+        this.clipPending = true;
+        return this;
+    }
+
+    public GeometricPipeline center(int newW, int newH) {
+        int delX = (int) (BaseMath.abs(newW - this.w) / 2);
+        int delY = (int) (BaseMath.abs(newH - this.h) / 2);
+        return crop(newW, newH).translation(delX, delY);
+    }
+
+    public GeometricPipeline crop(int newW, int newH) {
+        transform(new double[]{1, 0, 0, 0, 1, 0}, newW, newH);
+        this.clipPending = true;
+        return this;
+    }
+
+    public GeometricPipeline scaling(double scaleW, double scaleH) {
+        int newW = (int) BaseMath.max(scaleW * this.w, 1);
+        int newH = (int) BaseMath.max(scaleH * this.h, 1);
+        return transform(new double[]{scaleW, 0, 0, 0, scaleH, 0}, newW, newH);
+    }
+
+    public GeometricPipeline shearing(double angleX, double angleY) {
+        double a = BaseMath.sin(BaseMath.angle2Radians(angleX));
+        double b = BaseMath.sin(BaseMath.angle2Radians(angleY));
+        return shearingByK(a, b);
+    }
+
+    public GeometricPipeline shearingByK(double a, double b) {
+        int newW = (int) (this.w + BaseMath.abs(a) * this.h);
+        int newH = (int) (this.h + BaseMath.abs(b) * this.w);
+        double delX = a > 0 ? 0 : newW - this.w;
+        double delY = b > 0 ? 0 : newH - this.h;
+        return transform(new double[]{1, a, delX, b, 1, delY}, newW, newH);
+    }
+
+    /**
+     * Rotation around the center, the output is the bounding box of the rotated image.
+     */
+    public GeometricPipeline rotation(double angle) {
+        double radian = BaseMath.angle2Radians(angle);
+        double sin = BaseMath.sin(radian);
+        double cos = BaseMath.cos(radian);
+        int newW = (int) BaseMath.max(BaseMath.round(BaseMath.abs(cos) * this.w + BaseMath.abs(sin) * this.h), 1);
+        int newH = (int) BaseMath.max(BaseMath.round(BaseMath.abs(cos) * this.h + BaseMath.abs(sin) * this.w), 1);
+        double cx = this.w / 2.0;
+        double cy = this.h / 2.0;
+        return transform(new double[]{
+                cos, -sin, newW / 2.0 - cos * cx + sin * cy,
+                sin, cos, newH / 2.0 - sin * cx - cos * cy
+        }, newW, newH);
+    }
+
+    /**
+     * Evaluates the chain on the given backend in one pass.
+     */
+    public Image apply(Geometric geometric) {
+        double[] clips = new double[this.clips.size() * CLIP_SIZE];
+        for (int i = 0; i < this.clips.size(); i++) {
+            System.arraycopy(this.clips.get(i), 0, clips, i * CLIP_SIZE, CLIP_SIZE);
+        }
+        return geometric.affine(this.image, invert(this.matrix), this.w, this.h, clips);
+    }
+
+    private GeometricPipeline transform(double[] step, int newW, int newH) {
+        if (this.clipPending) {
+            double[] clip = new double[CLIP_SIZE];
+            System.arraycopy(this.matrix, 0, clip, 0, 6);
+            clip[6] = this.w;
+            clip[7] = this.h;
+            this.clips.add(clip);
+            this.clipPending = false;
+        }
+        this.matrix = multiply(step, this.matrix);
+        this.w = newW;
+        this.h = newH;
+        return this;
+    }
+
+    private static double[] multiply(double[] a, double[] b) {
+        return new double[]{
+                a[0] * b[0] + a[1] * b[3], a[0] * b[1] + a[1] * b[4], a[0] * b[2] + a[1] * b[5] + a[2],
+                a[3] * b[0] + a[4] * b[3], a[3] * b[1] + a[4] * b[4], a[3] * b[2] + a[4] * b[5] + a[5]
+        };
+    }
+
+    private static double[] invert(double[] m) {
+        double det = m[0] * m[4] - m[1] * m[3];
+        if (BaseMath.almostZero(det)) {
+            throw new IllegalArgumentException("geometric pipeline is degenerate, det=" + det);
+        }
+        return new double[]{
+                m[4] / det, -m[1] / det, (m[1] * m[5] - m[4] * m[2]) / det,
+                -m[3] / det, m[0] / det, (m[3] * m[2] - m[0] * m[5]) / det
+        };
+    }
+
+    /**
+     * Samples output row y for {@link Geometric#affine} on the CPU, samples outside of the source or any clip get
+     * the background. Coordinates are computed as in the GPU kernel, so all backends give the same pixels.
+     */
+    public static void affineRow(Image image, double[] matrix, double[] clips, int y, int[] row) {
+        int w = image.w;
+        int h = image.h;
+        int[] grid = image.grid;
+        int background = image.background();
+        double rowX = matrix[1] * (y + 0.5) + matrix[2];
+        double rowY = matrix[4] * (y + 0.5) + matrix[5];
+        for (int x = 0; x < row.length; x++) {
+            double sx = matrix[0] * (x + 0.5) + rowX;
+            double sy = matrix[3] * (x + 0.5) + rowY;
+            int color = background;
+            if (0 <= sx && sx < w && 0 <= sy && sy < h && inClips(clips, sx, sy)) {
+                color = grid != null ? grid[(int) sy * w + (int) sx] : image.get((int) sx, (int) sy);
+            }
+            row[x] = color;
+        }
+    }
+
+    private static boolean inClips(double[] clips, double sx, double sy) {
+        for (int i = 0; i < clips.length; i += CLIP_SIZE) {
+            double cx = clips[i] * sx + clips[i + 1] * sy + clips[i + 2];
+            double cy = clips[i + 3] * sx + clips[i + 4] * sy + clips[i + 5];
+            if (cx < 0 || clips[i + 6] <= cx || cy < 0 || clips[i + 7] <= cy) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
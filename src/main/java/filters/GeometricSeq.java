@@ -2,32 +2,15 @@ package filters;
 
 import helpers.BaseMath;
 import model.Image;
+import model.ImageView;
+
+import java.util.Arrays;
 
 public class GeometricSeq implements Geometric {
 
     @Override
     public Image translation(Image image, int delX, int delY) {
-        Image newImage = image.copy();
-        translation(image, newImage, delX, delY);
-        return newImage;
-    }
-
-    private void translation(Image image, Image newImage, int delX, int delY) {
-        int w = image.w;
-        int h = image.h;
-        int gridSize = image.size;
-        int[] grid = image.grid;
-        int[] newGrid = newImage.grid;
-        for (int i = 0; i < gridSize; i++) {
-            int x = i % w;
-            int y = i / w;
-            int newX = x + delX;
-            int newY = y + delY;
-            int j = i + delX + delY * w;
-            if (0 <= newX && newX < w && 0 <= newY && newY < h) {
-                newGrid[j] = grid[i];
-            }
-        }
+        return new ImageView(image, -delX, -delY, image.w, image.h);
     }
 
     @Override
@@ -36,55 +19,55 @@ public class GeometricSeq implements Geometric {
         int h = image.h;
         int delX = (int) (BaseMath.abs(newW - w) / 2);
         int delY = (int) (BaseMath.abs(newH - h) / 2);
-        Image newImage = new Image(image.name, newW, newH, image.type);
-        int[] newGrid = newImage.grid;
-        int[] grid = image.grid;
-        int gridSize = w * h;
-        for (int i = 0; i < gridSize; i++) {
-            int x = i % w;
-            int y = i / w;
-            if (x < newW && y < newH) {
-                int j = x + y * newW;
-                newGrid[j] = grid[i];
-            }
-        }
-        return translation(newImage, delX, delY);
+        return translation(crop(image, newW, newH), delX, delY);
     }
 
     @Override
     public Image crop(Image image, int newW, int newH) {
-        Image newImage = new Image(image.name, newW, newH, image.type);
-        crop(image, newImage, newW, newH);
-        return newImage;
+        return new ImageView(image, 0, 0, newW, newH);
     }
 
-    private void crop(Image image, Image newImage, int newW, int newH) {
+    @Override
+    public Image letterbox(Image image, int newW, int newH) {
         int w = image.w;
         int h = image.h;
-        int[] grid = image.grid;
+        int srcX = BaseMath.max((w - newW) / 2, 0);
+        int srcY = BaseMath.max((h - newH) / 2, 0);
+        int dstX = BaseMath.max((newW - w) / 2, 0);
+        int dstY = BaseMath.max((newH - h) / 2, 0);
+        int length = BaseMath.min(w, newW);
+        int rows = BaseMath.min(h, newH);
+        int background = image.background();
+        Image newImage = image.copy(newW, newH);
         int[] newGrid = newImage.grid;
-        int currW = BaseMath.min(w, newW);
-        int currH = BaseMath.min(h, newH);
-        int gridSize = currW * currH;
-        for (int i = 0; i < gridSize; i++) {
-            int x = i % currW;
-            int y = i / currW;
-            int j = x + y * newW;
-            int k = x + y * w;
-            newGrid[j] = grid[k];
+        int[] row = new int[newW];
+        Arrays.fill(row, background);
+        for (int y = 0; y < newH; y++) {
+            boolean isInside = y >= dstY && y < dstY + rows;
+            if (newGrid != null) {
+                if (background != 0) {
+                    Arrays.fill(newGrid, y * newW, (y + 1) * newW, background);
+                }
+                if (isInside) {
+                    image.getRow(srcY + y - dstY, srcX, length, newGrid, y * newW + dstX);
+                }
+            } else {
+                if (isInside) {
+                    image.getRow(srcY + y - dstY, srcX, length, row, dstX);
+                }
+                newImage.setRow(y, 0, newW, row, 0);
+            }
         }
+        return newImage;
     }
 
     @Override
     public Image scaling(Image image, double scaleW, double scaleH) {
         int w = image.w;
         int h = image.h;
-        int[] grid = image.grid;
         int newW = (int) BaseMath.max(scaleW * w, 1);
         int newH = (int) BaseMath.max(scaleH * h, 1);
-        int gridSize = newW * newH;
-        Image newImage = new Image(image.name, newW, newH, image.type);
-        int[] newGrid = newImage.grid;
+        Image newImage = image.copy(newW, newH);
         int maxSize = BaseMath.max(newW, newH);
         int[] rowIndex = new int[maxSize];
         int[] colIndex = new int[maxSize];
@@ -92,11 +75,18 @@ public class GeometricSeq implements Geometric {
             rowIndex[i] = BaseMath.min((int) BaseMath.round((i + 0.5) / scaleW - 0.5), w - 1);
             colIndex[i] = BaseMath.min((int) BaseMath.round((i + 0.5) / scaleH - 0.5), h - 1);
         }
-        for (int i = 0; i < gridSize; i++) {
-            int x = i % newW;
-            int y = i / newW;
-            int j = rowIndex[x] + colIndex[y] * w;
-            newGrid[i] = grid[j];
+        int[] row = new int[w];
+        int[] newRow = new int[newW];
+        int currY = -1;
+        for (int y = 0; y < newH; y++) {
+            if (colIndex[y] != currY) {
+                currY = colIndex[y];
+                image.getRow(currY, 0, w, row, 0);
+                for (int x = 0; x < newW; x++) {
+                    newRow[x] = row[rowIndex[x]];
+                }
+            }
+            newImage.setRow(y, 0, newW, newRow, 0);
         }
         return newImage;
     }
@@ -105,8 +95,8 @@ public class GeometricSeq implements Geometric {
     public Image shearing(Image image, double angleX, double angleY) {
         double radianX = BaseMath.angle2Radians(angleX);
         double radianY = BaseMath.angle2Radians(angleY);
-        double a = BaseMath.sinTailor(radianX);
-        double b = BaseMath.sinTailor(radianY);
+        double a = BaseMath.sin(radianX);
+        double b = BaseMath.sin(radianY);
         return shearingByK(image, a, b);
     }
 
@@ -116,7 +106,7 @@ public class GeometricSeq implements Geometric {
         int h = image.h;
         int newW = (int) (w + BaseMath.abs(a) * h);
         int newH = (int) (h + BaseMath.abs(b) * w);
-        Image newImage = new Image(image.name, newW, newH, image.type);
+        Image newImage = image.copy(newW, newH);
         shearingByK(image, newImage, a, b);
         return newImage;
     }
@@ -124,22 +114,19 @@ public class GeometricSeq implements Geometric {
     public void shearingByK(Image image, Image newImage, double a, double b) {
         int w = image.w;
         int h = image.h;
-        int[] grid = image.grid;
         int newW = (int) (w + BaseMath.abs(a) * h);
         int newH = (int) (h + BaseMath.abs(b) * w);
-        int[] newGrid = newImage.grid;
         int delW = newW - w;
         int delH = newH - h;
-        int gridSize = w * h;
-        for (int i = 0; i < gridSize; i++) {
-            int x = i % w;
-            int y = i / w;
-            int newX = (int) (x + a * y + (a > 0 ? 0 : delW));
-            int newY = (int) (b * x + y + (b > 0 ? 0 : delH));
-            if (0 <= newX && newX < newW && 0 <= newY && newY < newH) {
-                int j = newX + newY * newW;
-                int color = grid[i];
-                newGrid[j] = color;
+        int[] row = new int[w];
+        for (int y = 0; y < h; y++) {
+            image.getRow(y, 0, w, row, 0);
+            for (int x = 0; x < w; x++) {
+                int newX = (int) (x + a * y + (a > 0 ? 0 : delW));
+                int newY = (int) (b * x + y + (b > 0 ? 0 : delH));
+                if (0 <= newX && newX < newW && 0 <= newY && newY < newH) {
+                    newImage.set(newX, newY, row[x]);
+                }
             }
         }
     }
@@ -148,30 +135,31 @@ public class GeometricSeq implements Geometric {
     public Image rotation90(Image image) {
         int w = image.w;
         int h = image.h;
-        int gridSize = image.size;
-        int[] grid = image.grid;
-        Image newImage = new Image(image.name, h, w, image.type);
-        int[] newGrid = newImage.grid;
-        for (int i = 0; i < gridSize; i++) {
-            int x = i % w;
-            int y = i / w;
+        Image newImage = image.copy(h, w);
+        int[] row = new int[w];
+        for (int y = 0; y < h; y++) {
+            image.getRow(y, 0, w, row, 0);
             int newX = h - y - 1;
-            int newY = x;
-            int j = newX + newY * h;
-            newGrid[j] = grid[i];
+            for (int x = 0; x < w; x++) {
+                newImage.set(newX, x, row[x]);
+            }
         }
         return newImage;
     }
 
     @Override
     public Image rotation180(Image image) {
-        int gridSize = image.size;
-        int[] grid = image.grid;
+        int w = image.w;
+        int h = image.h;
         Image newImage = image.copy();
-        int[] newGrid = newImage.grid;
-        for (int i = 0; i < gridSize; i++) {
-            int j = gridSize - i - 1;
-            newGrid[j] = grid[i];
+        int[] row = new int[w];
+        int[] newRow = new int[w];
+        for (int y = 0; y < h; y++) {
+            image.getRow(y, 0, w, row, 0);
+            for (int x = 0; x < w; x++) {
+                newRow[w - x - 1] = row[x];
+            }
+            newImage.setRow(h - y - 1, 0, w, newRow, 0);
         }
         return newImage;
     }
@@ -180,17 +168,13 @@ public class GeometricSeq implements Geometric {
     public Image rotation270(Image image) {
         int w = image.w;
         int h = image.h;
-        int gridSize = image.size;
-        int[] grid = image.grid;
-        Image newImage = new Image(image.name, h, w, image.type);
-        int[] newGrid = newImage.grid;
-        for (int i = 0; i < gridSize; i++) {
-            int x = i % w;
-            int y = i / w;
-            int newX = y;
-            int newY = w - x - 1;
-            int j = newX + newY * h;
-            newGrid[j] = grid[i];
+        Image newImage = image.copy(h, w);
+        int[] row = new int[w];
+        for (int y = 0; y < h; y++) {
+            image.getRow(y, 0, w, row, 0);
+            for (int x = 0; x < w; x++) {
+                newImage.set(y, w - x - 1, row[x]);
+            }
         }
         return newImage;
     }
@@ -215,9 +199,9 @@ public class GeometricSeq implements Geometric {
 //        System.out.println("init");
 //        final int w = image.w;
 //        final int h = image.h;
-//        final double sin = BaseMath.sinTailor(radian);
-//        final double cos = BaseMath.cosTailor(radian);
-//        final double tgHalfAngle = BaseMath.tgTailor(radian / 2);
+//        final double sin = BaseMath.sin(radian);
+//        final double cos = BaseMath.cos(radian);
+//        final double tgHalfAngle = BaseMath.tg(radian / 2);
 //        final int newW = (int) (BaseMath.abs(cos) * w + BaseMath.abs(sin) * h) + 10;
 //        final int newH = (int) (BaseMath.abs(cos) * h + BaseMath.abs(sin) * w) + 10;
 //
@@ -246,36 +230,29 @@ public class GeometricSeq implements Geometric {
 
     @Override
     public Image rotation(Image image, double angle) {
-        double radian = BaseMath.angle2Radians(angle);
-        if (radian < 0) {
-            radian += BaseMath.PIx2;
+        return rotation(image, angle, NEAREST);
+    }
+
+    @Override
+    public Image rotation(Image image, double angle, int interpolation) {
+        RotationEngine engine = new RotationEngine(image.w, image.h, angle);
+        Image newImage = image.copy(engine.newW, engine.newH);
+        int[] row = new int[engine.newW];
+        for (int y = 0; y < engine.newH; y++) {
+            engine.rotateRow(image, y, row, interpolation);
+            newImage.setRow(y, 0, engine.newW, row, 0);
         }
-        if (BaseMath.PId2 <= radian && radian < BaseMath.PI) {
-            image = rotation90(image);
-            radian -= BaseMath.PId2;
-        } else if (BaseMath.PI <= radian && radian < BaseMath.PIx3d2) {
-            image = rotation180(image);
-            radian -= BaseMath.PI;
-        } else if (BaseMath.PIx3d2 <= radian && radian < BaseMath.PIx2) {
-            image = rotation270(image);
-            radian -= BaseMath.PIx3d2;
+        return newImage;
+    }
+
+    @Override
+    public Image affine(Image image, double[] matrix, int newW, int newH, double[] clips) {
+        Image newImage = image.copy(newW, newH);
+        int[] row = new int[newW];
+        for (int y = 0; y < newH; y++) {
+            GeometricPipeline.affineRow(image, matrix, clips, y, row);
+            newImage.setRow(y, 0, newW, row, 0);
         }
-        final int w = image.w;
-        final int h = image.h;
-        final double sin = BaseMath.sinTailor(radian);
-        final double cos = BaseMath.cosTailor(radian);
-        final double tgHalfAngle = BaseMath.tgTailor(radian / 2);
-        final int newW = (int) (BaseMath.abs(cos) * w + BaseMath.abs(sin) * h) + 10;
-        final int newH = (int) (BaseMath.abs(cos) * h + BaseMath.abs(sin) * w) + 10;
-        Image newImage = shearingByK(image, -tgHalfAngle, 0);
-        newImage = shearingByK(newImage, 0, sin);
-        newImage = shearingByK(newImage, -tgHalfAngle, 0);
-        final int currW = newImage.w;
-        final int currH = newImage.h;
-        final int delWd2 = (currW - newW) / 2;
-        final int delHd2 = (currH - newH) / 2;
-        translation(newImage, newImage, -delWd2, -delHd2);
-        crop(newImage, newImage, newW, newH);
         return newImage;
     }
 }
@@ -0,0 +1,131 @@
+package filters;
+
+import helpers.BaseMath;
+import helpers.ParallelRuntime;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+import model.Image;
+
+/**
+ * {@link GeometricParCPU} with scaling and the right angle rotations on the Vector API (run with
+ * {@code --add-modules jdk.incubator.vector}): output rows are split between the workers of the shared pool and
+ * filled a vector at a time, scaling and rotation90/270 by gathers, rotation180 by reversing lanes. Translation
+ * stays the view of the other backends, it copies nothing. Quarter rotations gather from the source grid, images
+ * without one (tiled, gray, mask) are rotated by the row-based ParCPU code.
+ */
+public class GeometricVector extends GeometricParCPU {
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorShuffle<Integer> REVERSE = VectorShuffle.iota(INTS, INTS.length() - 1, -1, true);
+
+    @Override
+    public Image scaling(Image image, double scaleW, double scaleH) {
+        int w = image.w;
+        int h = image.h;
+        int newW = (int) BaseMath.max(scaleW * w, 1);
+        int newH = (int) BaseMath.max(scaleH * h, 1);
+        Image newImage = image.copy(newW, newH);
+        int[] rowIndex = new int[newW];
+        int[] colIndex = new int[newH];
+        for (int i = 0; i < newW; i++) {
+            rowIndex[i] = BaseMath.min((int) BaseMath.round((i + 0.5) / scaleW - 0.5), w - 1);
+        }
+        for (int i = 0; i < newH; i++) {
+            colIndex[i] = BaseMath.min((int) BaseMath.round((i + 0.5) / scaleH - 0.5), h - 1);
+        }
+        int lanes = INTS.length();
+        int bound = INTS.loopBound(newW);
+        ParallelRuntime.parallelFor("scaling", 0, newH, ParallelRuntime.rowGrain(newW), (start, end) -> {
+            int[] row = new int[w];
+            int[] newRow = new int[newW];
+            int currY = -1;
+            for (int y = start; y < end; y++) {
+                if (colIndex[y] != currY) {
+                    currY = colIndex[y];
+                    image.getRow(currY, 0, w, row, 0);
+                    int x = 0;
+                    for (; x < bound; x += lanes) {
+                        IntVector.fromArray(INTS, row, 0, rowIndex, x).intoArray(newRow, x);
+                    }
+                    for (; x < newW; x++) {
+                        newRow[x] = row[rowIndex[x]];
+                    }
+                }
+                newImage.setRow(y, 0, newW, newRow, 0);
+            }
+        });
+        return newImage;
+    }
+
+    @Override
+    public Image rotation90(Image image) {
+        if (image.grid == null) {
+            return super.rotation90(image);
+        }
+        // new row y is the source column y read from the bottom
+        return rotationQuarter(image, true);
+    }
+
+    @Override
+    public Image rotation180(Image image) {
+        int w = image.w;
+        int h = image.h;
+        Image newImage = image.copy();
+        int lanes = INTS.length();
+        int bound = INTS.loopBound(w);
+        ParallelRuntime.parallelFor("rotation180", 0, h, ParallelRuntime.rowGrain(w), (start, end) -> {
+            int[] row = new int[w];
+            int[] newRow = new int[w];
+            for (int y = start; y < end; y++) {
+                image.getRow(y, 0, w, row, 0);
+                int x = 0;
+                for (; x < bound; x += lanes) {
+                    IntVector.fromArray(INTS, row, w - x - lanes).rearrange(REVERSE).intoArray(newRow, x);
+                }
+                for (; x < w; x++) {
+                    newRow[x] = row[w - x - 1];
+                }
+                newImage.setRow(h - y - 1, 0, w, newRow, 0);
+            }
+        });
+        return newImage;
+    }
+
+    @Override
+    public Image rotation270(Image image) {
+        if (image.grid == null) {
+            return super.rotation270(image);
+        }
+        // new row y is the source column w - 1 - y read from the top
+        return rotationQuarter(image, false);
+    }
+
+    private Image rotationQuarter(Image image, boolean isClockwise) {
+        int w = image.w;
+        int h = image.h;
+        int[] grid = image.grid;
+        Image newImage = new Image(image.name, h, w, image.type);
+        int[] newGrid = newImage.grid;
+        // offsets of the source rows in the order they appear along a new row
+        int[] rowOffsets = new int[h];
+        for (int i = 0; i < h; i++) {
+            rowOffsets[i] = (isClockwise ? h - 1 - i : i) * w;
+        }
+        int lanes = INTS.length();
+        int bound = INTS.loopBound(h);
+        ParallelRuntime.parallelFor("rotationQuarter", 0, w, ParallelRuntime.rowGrain(h), (start, end) -> {
+            for (int y = start; y < end; y++) {
+                int column = isClockwise ? y : w - 1 - y;
+                int offset = y * h;
+                int x = 0;
+                for (; x < bound; x += lanes) {
+                    IntVector.fromArray(INTS, grid, column, rowOffsets, x).intoArray(newGrid, offset + x);
+                }
+                for (; x < h; x++) {
+                    newGrid[offset + x] = grid[rowOffsets[x] + column];
+                }
+            }
+        });
+        return newImage;
+    }
+}
@@ -0,0 +1,82 @@
+package filters;
+
+import helpers.HsvBitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Labeled sets of HSV ranges for {@link Color#segment} and {@link Color#segmentMasks}. Ranges are groups of six
+ * values {hFrom, sFrom, vFrom, hTo, sTo, vTo} on the scale of {@link helpers.ColorARGB#hsv}: saturation 0..100,
+ * value 0..255 and a hue that only takes the values 0 (red dominant, 300..60 degrees), 180 (green, 60..120),
+ * 360 (green, 120..180), 540 (blue, 180..240) and 720 (blue, 240..300), so ranges select whole sectors:
+ * <pre>
+ * HsvLabels labels = new HsvLabels().add("red", HsvLabels.RED).add("skin", HsvLabels.SKIN);
+ * Image labelMap = color.segment(image, labels);
+ * </pre>
+ * Every set is compiled into a cached {@link HsvBitmap}, so a pixel costs one bit lookup per label.
+ */
+public class HsvLabels {
+    public static final int MAX_LABELS = 255;
+    public static final int[] RED = new int[]{0, 75, 50, 8, 255, 255};
+    public static final int[] GREEN = new int[]{172, 75, 50, 368, 255, 255};
+    public static final int[] BLUE = new int[]{532, 75, 50, 728, 255, 255};
+    public static final int[] SKIN = new int[]{0, 20, 80, 8, 60, 255};
+
+    private final List<String> names = new ArrayList<>();
+    private final List<int[]> ranges = new ArrayList<>();
+
+    /**
+     * red, green, blue and skin in this order.
+     */
+    public static HsvLabels colors() {
+        return new HsvLabels().add("red", RED).add("green", GREEN).add("blue", BLUE).add("skin", SKIN);
+    }
+
+    public HsvLabels add(String name, int... ranges) {
+        if (ranges.length == 0 || ranges.length % 6 != 0) {
+            throw new IllegalArgumentException("HSV ranges must be groups of 6 values, got " + ranges.length);
+        }
+        if (this.names.size() == MAX_LABELS) {
+            throw new IllegalArgumentException("at most " + MAX_LABELS + " labels");
+        }
+        this.names.add(name);
+        this.ranges.add(ranges.clone());
+        return this;
+    }
+
+    public int size() {
+        return this.names.size();
+    }
+
+    public String getName(int label) {
+        return this.names.get(label);
+    }
+
+    public int[] getRanges(int label) {
+        return this.ranges.get(label).clone();
+    }
+
+    /**
+     * Bitmap of every label in order.
+     */
+    public int[][] getBitmaps() {
+        int[][] bitmaps = new int[this.ranges.size()][];
+        for (int i = 0; i < bitmaps.length; i++) {
+            bitmaps[i] = HsvBitmap.get(this.ranges.get(i));
+        }
+        return bitmaps;
+    }
+
+    /**
+     * Label map value of the color: 1 + index of the first label containing it, 0 if none does.
+     */
+    public static int label(int[][] bitmaps, int color) {
+        for (int i = 0; i < bitmaps.length; i++) {
+            if (HsvBitmap.contains(bitmaps[i], color)) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+}
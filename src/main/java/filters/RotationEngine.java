@@ -0,0 +1,111 @@
+package filters;
+
+import helpers.BaseMath;
+import model.Image;
+
+/**
+ * Rotation around the center by inverse mapping: for every output pixel the source coordinates are stepped
+ * in fixed point ({@link #FIXED_SHIFT} fraction bits) from the row start, so the inner loop has no
+ * multiplications and every pixel of the bounding box is filled, without holes.
+ * Output pixel (x, y) samples source point (u0 + x * uStepX + y * uStepY, v0 + x * vStepX + y * vStepY),
+ * which the GPU kernel evaluates directly with the same integers.
+ */
+public class RotationEngine {
+    public static final int FIXED_SHIFT = 24;
+    public static final long FIXED_ONE = 1L << FIXED_SHIFT;
+    private static final long FIXED_HALF = FIXED_ONE >> 1;
+    private static final int WEIGHT_SHIFT = FIXED_SHIFT - 8;
+
+    final public int w;
+    final public int h;
+    final public int newW;
+    final public int newH;
+    final public long u0;
+    final public long v0;
+    final public long uStepX;
+    final public long vStepX;
+    final public long uStepY;
+    final public long vStepY;
+
+    public RotationEngine(int w, int h, double angle) {
+        double radian = BaseMath.angle2Radians(angle);
+        double sin = BaseMath.sin(radian);
+        double cos = BaseMath.cos(radian);
+        this.w = w;
+        this.h = h;
+        this.newW = (int) BaseMath.max(BaseMath.round(BaseMath.abs(cos) * w + BaseMath.abs(sin) * h), 1);
+        this.newH = (int) BaseMath.max(BaseMath.round(BaseMath.abs(cos) * h + BaseMath.abs(sin) * w), 1);
+        // inverse of x' = cos * x - sin * y, y' = sin * x + cos * y around the centers, at pixel centers
+        double dx = 0.5 - this.newW / 2.0;
+        double dy = 0.5 - this.newH / 2.0;
+        this.u0 = toFixed(cos * dx + sin * dy + w / 2.0);
+        this.v0 = toFixed(-sin * dx + cos * dy + h / 2.0);
+        this.uStepX = toFixed(cos);
+        this.vStepX = toFixed(-sin);
+        this.uStepY = toFixed(sin);
+        this.vStepY = toFixed(cos);
+    }
+
+    private static long toFixed(double value) {
+        return BaseMath.round(value * FIXED_ONE);
+    }
+
+    /**
+     * Fills row y of the output, pixels mapped outside of the source get the background.
+     */
+    public void rotateRow(Image image, int y, int[] row, int interpolation) {
+        int[] grid = image.grid;
+        int background = image.background();
+        long u = this.u0 + y * this.uStepY;
+        long v = this.v0 + y * this.vStepY;
+        long maxU = (long) this.w << FIXED_SHIFT;
+        long maxV = (long) this.h << FIXED_SHIFT;
+        for (int x = 0; x < this.newW; x++, u += this.uStepX, v += this.vStepX) {
+            if (u < 0 || u >= maxU || v < 0 || v >= maxV) {
+                row[x] = background;
+            } else if (interpolation == Geometric.BILINEAR) {
+                row[x] = bilinear(image, grid, u - FIXED_HALF, v - FIXED_HALF);
+            } else {
+                int sx = (int) (u >> FIXED_SHIFT);
+                int sy = (int) (v >> FIXED_SHIFT);
+                row[x] = grid != null ? grid[sy * this.w + sx] : image.get(sx, sy);
+            }
+        }
+    }
+
+    private int bilinear(Image image, int[] grid, long u, long v) {
+        int x0 = (int) (u >> FIXED_SHIFT);
+        int y0 = (int) (v >> FIXED_SHIFT);
+        int fx = (int) (u >> WEIGHT_SHIFT) & 0xFF;
+        int fy = (int) (v >> WEIGHT_SHIFT) & 0xFF;
+        int x1 = BaseMath.min(x0 + 1, this.w - 1);
+        int y1 = BaseMath.min(y0 + 1, this.h - 1);
+        x0 = BaseMath.max(x0, 0);
+        y0 = BaseMath.max(y0, 0);
+        int c00;
+        int c01;
+        int c10;
+        int c11;
+        if (grid != null) {
+            c00 = grid[y0 * this.w + x0];
+            c01 = grid[y0 * this.w + x1];
+            c10 = grid[y1 * this.w + x0];
+            c11 = grid[y1 * this.w + x1];
+        } else {
+            c00 = image.get(x0, y0);
+            c01 = image.get(x1, y0);
+            c10 = image.get(x0, y1);
+            c11 = image.get(x1, y1);
+        }
+        return lerp(lerp(c00, c01, fx), lerp(c10, c11, fx), fy);
+    }
+
+    /**
+     * Per-channel c0 + (c1 - c0) * f / 256 of two ARGB colors, two channels per multiplication.
+     */
+    public static int lerp(int c0, int c1, int f) {
+        int rb = (((c0 & 0xFF00FF) * (256 - f) + (c1 & 0xFF00FF) * f) >>> 8) & 0xFF00FF;
+        int ag = (((c0 >>> 8) & 0xFF00FF) * (256 - f) + ((c1 >>> 8) & 0xFF00FF) * f) & 0xFF00FF00;
+        return ag | rb;
+    }
+}
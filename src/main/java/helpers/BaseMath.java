@@ -7,6 +7,29 @@ public class BaseMath {
     public static final double PIx3d2 = 4.712388980384689;
     public static final double PIx2 = 6.283185307179586;
     public static final double ALMOST_ZERO = 0.000000000000001;
+    /**
+     * Accuracy of {@link #sin}, {@link #cos} and {@link #tg}: table with linear interpolation (~3e-7),
+     * short minimax polynomials (~2e-9) or long ones (~1e-16, the default).
+     */
+    public static final int TRIG_TABLE = 0;
+    public static final int TRIG_POLY = 1;
+    public static final int TRIG_PRECISE = 2;
+    public static final int SIN_TABLE_SIZE = 4096;
+    /**
+     * sin over [0, 2 PI] in {@link #SIN_TABLE_SIZE} steps plus the closing value, for {@link #sinTable}.
+     */
+    public static final double[] SIN_TABLE = new double[SIN_TABLE_SIZE + 1];
+    private static final double TWO_OVER_PI = 0.6366197723675814;
+    // PI / 2 split into 33 upper bits and the rest, k * PIO2_HI is exact for the angles used here
+    private static final double PIO2_HI = 1.57079632673412561417e+00;
+    private static final double PIO2_LO = 6.07710050650619224932e-11;
+    private static volatile int trigAccuracy = TRIG_PRECISE;
+
+    static {
+        for (int i = 0; i <= SIN_TABLE_SIZE; i++) {
+            SIN_TABLE[i] = Math.sin(PIx2 * i / SIN_TABLE_SIZE);
+        }
+    }
 
     public static boolean almostZero(double x) {
         return abs(x) < ALMOST_ZERO;
@@ -57,6 +80,132 @@ public class BaseMath {
         return (a > b) ? a : b;
     }
 
+    public static int getTrigAccuracy() {
+        return trigAccuracy;
+    }
+
+    public static void setTrigAccuracy(int accuracy) {
+        trigAccuracy = accuracy;
+    }
+
+    /**
+     * sin with the accuracy set by {@link #setTrigAccuracy}, values within {@link #ALMOST_ZERO} are snapped to 0.
+     * Kernels should call {@link #sinTable}, {@link #sinPoly} or {@link #sinPrecise} directly.
+     */
+    public static double sin(double radian) {
+        int accuracy = trigAccuracy;
+        double result = accuracy == TRIG_TABLE ? sinTable(SIN_TABLE, radian)
+                : accuracy == TRIG_POLY ? sinPoly(radian) : sinPrecise(radian);
+        return almostZero(result) ? 0 : result;
+    }
+
+    public static double cos(double radian) {
+        int accuracy = trigAccuracy;
+        double result = accuracy == TRIG_TABLE ? cosTable(SIN_TABLE, radian)
+                : accuracy == TRIG_POLY ? cosPoly(radian) : cosPrecise(radian);
+        return almostZero(result) ? 0 : result;
+    }
+
+    public static double tg(double radian) {
+        double sin = sin(radian);
+        double cos = cos(radian);
+        if (almostZero(sin) || almostZero(cos)) {
+            return 0;
+        }
+        return sin / cos;
+    }
+
+    /**
+     * Linear interpolation in a table like {@link #SIN_TABLE} (its size without the closing value must be a power of
+     * two), the table is a parameter so that kernels can pass their own copy of it.
+     */
+    public static double sinTable(double[] table, double radian) {
+        int size = table.length - 1;
+        double t = radian * (size / PIx2);
+        long n = (long) t;
+        n = t < n ? n - 1 : n;
+        double f = t - n;
+        int i = (int) (n & (size - 1));
+        return table[i] + f * (table[i + 1] - table[i]);
+    }
+
+    public static double cosTable(double[] table, double radian) {
+        return sinTable(table, radian + PId2);
+    }
+
+    /**
+     * Quadrant of the angle, the angle is reduced to [-PI / 4, PI / 4] by {@link #reduce}.
+     */
+    private static int quadrant(double radian) {
+        double k = radian * TWO_OVER_PI;
+        return (int) (k < 0 ? k - 0.5 : k + 0.5);
+    }
+
+    private static double reduce(double radian, int quadrant) {
+        return (radian - quadrant * PIO2_HI) - quadrant * PIO2_LO;
+    }
+
+    public static double sinPoly(double radian) {
+        int k = quadrant(radian);
+        double r = reduce(radian, k);
+        return quadrantSin(k, sinPolyKernel(r), cosPolyKernel(r));
+    }
+
+    public static double cosPoly(double radian) {
+        int k = quadrant(radian);
+        double r = reduce(radian, k);
+        return quadrantSin(k + 1, sinPolyKernel(r), cosPolyKernel(r));
+    }
+
+    public static double sinPrecise(double radian) {
+        int k = quadrant(radian);
+        double r = reduce(radian, k);
+        return quadrantSin(k, sinPreciseKernel(r), cosPreciseKernel(r));
+    }
+
+    public static double cosPrecise(double radian) {
+        int k = quadrant(radian);
+        double r = reduce(radian, k);
+        return quadrantSin(k + 1, sinPreciseKernel(r), cosPreciseKernel(r));
+    }
+
+    /**
+     * sin(k * PI / 2 + r) from sin(r) and cos(r).
+     */
+    private static double quadrantSin(int k, double sin, double cos) {
+        double value = (k & 1) == 0 ? sin : cos;
+        return value * (1 - (k & 2));
+    }
+
+    // minimax on [-PI / 4, PI / 4] in Horner form, max error 1.8e-9 and 9.5e-11
+    private static double sinPolyKernel(double x) {
+        double z = x * x;
+        return x + x * z * (-0.16666650669294233 + z * (0.008331978663157236 + z * -0.00019495636237551076));
+    }
+
+    private static double cosPolyKernel(double x) {
+        double z = x * x;
+        return 1 - 0.5 * z + z * z * (0.041666646866442288 + z * (-0.0013887367515731102 + z * 2.443845159363396e-05));
+    }
+
+    // fdlibm __kernel_sin and __kernel_cos coefficients, error below 2^-58 on [-PI / 4, PI / 4]
+    private static double sinPreciseKernel(double x) {
+        double z = x * x;
+        return x + x * z * (-1.66666666666666324348e-01 + z * (8.33333333332248946124e-03
+                + z * (-1.98412698298579493134e-04 + z * (2.75573137070700676789e-06
+                + z * (-2.50507602534068634195e-08 + z * 1.58969099521155010221e-10)))));
+    }
+
+    private static double cosPreciseKernel(double x) {
+        double z = x * x;
+        return 1 - 0.5 * z + z * z * (4.16666666666666019037e-02 + z * (-1.38888888888741095749e-03
+                + z * (2.48015872894767294178e-05 + z * (-2.75573143513906633035e-07
+                + z * (2.08757232129817482790e-09 + z * -1.13596475577881948265e-11)))));
+    }
+
+    /**
+     * Reference 9-term Taylor series, see {@link #sin} for the fast versions.
+     */
     public static double sinTailor(double radian) {
         boolean signPlus = true;
         if (radian < 0) {
@@ -0,0 +1,285 @@
+package helpers;
+
+import model.Image;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Processes every image of a directory in three pipelined stages: decode, filter and encode ({@link PngEncoder}).
+ * Each stage has its own pool of workers and hands images to the next one through a bounded queue,
+ * so disk I/O overlaps with filtering and at most (queue capacity + workers) images wait per stage.
+ * <pre>
+ * BatchProcessor batch = new BatchProcessor(color::grayscale);
+ * batch.run(inputDir, outputDir);
+ * System.out.println(batch.stats());
+ * </pre>
+ */
+public class BatchProcessor {
+    public static final int QUEUE_CAPACITY_DEFAULT = 4;
+    private static final Item END = new Item(null, null, null);
+
+    private final Function<Image, Image> filter;
+    private final Stage decode;
+    private final Stage filtering;
+    private final Stage encode;
+    private final int queueCapacity;
+    private long wallNanos = 0;
+
+    public BatchProcessor(Function<Image, Image> filter) {
+        this(filter, 1, ParallelRuntime.getParallelism(), 1, QUEUE_CAPACITY_DEFAULT);
+    }
+
+    /**
+     * @param filter        applied to every decoded image, the result is encoded and released, then the decoded
+     *                      image (results may be views reading it)
+     * @param queueCapacity images waiting between two stages
+     */
+    public BatchProcessor(
+            Function<Image, Image> filter, int decodeThreads, int filterThreads, int encodeThreads, int queueCapacity
+    ) {
+        this.filter = filter;
+        this.decode = new Stage("decode", BaseMath.max(decodeThreads, 1));
+        this.filtering = new Stage("filter", BaseMath.max(filterThreads, 1));
+        this.encode = new Stage("encode", BaseMath.max(encodeThreads, 1));
+        this.queueCapacity = BaseMath.max(queueCapacity, 1);
+    }
+
+    /**
+     * Processes the images of inputDir into PNG files of the same names in outputDir.
+     * Returns false if the batch failed or reached the timeout, errors of single files are counted in the stats.
+     */
+    public boolean run(File inputDir, File outputDir) {
+        File[] files = inputDir.listFiles(ImageRW.IMAGE_FILTER);
+        if (files == null) {
+            System.out.println("WARNING: cannot load images from " + inputDir.getPath());
+            return false;
+        }
+        Arrays.sort(files);
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            System.out.println("WARNING: cannot create dir " + outputDir.getPath());
+            return false;
+        }
+        BlockingQueue<Item> decoded = new ArrayBlockingQueue<>(this.queueCapacity);
+        BlockingQueue<Item> filtered = new ArrayBlockingQueue<>(this.queueCapacity);
+        AtomicInteger next = new AtomicInteger();
+        List<ExecutorService> pools = new ArrayList<>();
+        this.decode.reset(decoded);
+        this.filtering.reset(filtered);
+        this.encode.reset(null);
+        long startTime = System.nanoTime();
+        boolean isCompleted = true;
+        try {
+            pools.add(this.decode.start(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < files.length) {
+                    File file = files[i];
+                    long itemStart = System.nanoTime();
+                    Image image = this.decode.process(() -> ImageRW.loadImage(file), file.getPath());
+                    this.decode.done(itemStart);
+                    if (image != null) {
+                        this.decode.put(new Item(file.getName(), image, image));
+                    }
+                }
+            }, this.filtering.threads));
+            pools.add(this.filtering.start(() -> {
+                Item item;
+                while ((item = decoded.take()) != END) {
+                    Image image = item.image;
+                    long itemStart = System.nanoTime();
+                    Image result = this.filtering.process(() -> this.filter.apply(image), item.name);
+                    this.filtering.done(itemStart);
+                    if (result != null) {
+                        // crop, translation and center return views of the source, it is released after encoding
+                        this.filtering.put(new Item(item.name, result, image));
+                    } else {
+                        image.release();
+                    }
+                }
+            }, this.encode.threads));
+            pools.add(this.encode.start(() -> {
+                Item item;
+                while ((item = filtered.take()) != END) {
+                    Image image = item.image;
+                    File file = new File(outputDir, ImageRW.checkFormat(item.name, ImageRW.IMAGE_FORMAT_DEFAULT));
+                    long itemStart = System.nanoTime();
+                    this.encode.process(() -> {
+                        ImageRW.pngEncoder.write(image, file);
+                        return file;
+                    }, file.getPath());
+                    image.release();
+                    if (item.source != image) {
+                        item.source.release();
+                    }
+                    this.encode.done(itemStart);
+                }
+            }, 0));
+            long deadline = System.nanoTime() + ParallelRuntime.TIME_UNIT.toNanos(ParallelRuntime.TIMEOUT);
+            for (ExecutorService pool : pools) {
+                pool.shutdown();
+                isCompleted &= pool.awaitTermination(
+                        BaseMath.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS
+                );
+            }
+            if (!isCompleted) {
+                System.out.println("WARNING: batch reached timeout");
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("WARNING: batch gone wrong");
+            isCompleted = false;
+        } finally {
+            for (ExecutorService pool : pools) {
+                pool.shutdownNow();
+            }
+            this.wallNanos = System.nanoTime() - startTime;
+        }
+        return isCompleted;
+    }
+
+    /**
+     * Files that failed in any stage during the last run.
+     */
+    public long errors() {
+        return this.decode.errors.get() + this.filtering.errors.get() + this.encode.errors.get();
+    }
+
+    public String stats() {
+        return this.decode.stats(this.wallNanos)
+                + "; " + this.filtering.stats(this.wallNanos)
+                + "; " + this.encode.stats(this.wallNanos)
+                + "; wall=" + TimeUnit.NANOSECONDS.toMillis(this.wallNanos) + " ms";
+    }
+
+    private static class Item {
+        final String name;
+        final Image image;
+        final Image source;
+
+        Item(String name, Image image, Image source) {
+            this.name = name;
+            this.image = image;
+            this.source = source;
+        }
+    }
+
+    private interface Work {
+        void run() throws Exception;
+    }
+
+    private interface Step<T> {
+        T run() throws Exception;
+    }
+
+    /**
+     * Workers of one stage with their counters, output is the queue feeding the next stage.
+     */
+    private static class Stage {
+        final String name;
+        final int threads;
+        private final AtomicLong items = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+        private final AtomicLong depthSum = new AtomicLong();
+        private final AtomicLong depthSamples = new AtomicLong();
+        private final AtomicInteger maxDepth = new AtomicInteger();
+        private final AtomicInteger running = new AtomicInteger();
+        private BlockingQueue<Item> output;
+
+        Stage(String name, int threads) {
+            this.name = name;
+            this.threads = threads;
+        }
+
+        void reset(BlockingQueue<Item> output) {
+            this.output = output;
+            this.items.set(0);
+            this.errors.set(0);
+            this.busyNanos.set(0);
+            this.depthSum.set(0);
+            this.depthSamples.set(0);
+            this.maxDepth.set(0);
+            this.running.set(this.threads);
+        }
+
+        /**
+         * Starts the workers, the last one to finish puts an end marker for each of the next stage's workers.
+         */
+        ExecutorService start(Work work, int nextThreads) {
+            ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+            for (int i = 0; i < this.threads; i++) {
+                pool.submit(() -> {
+                    try {
+                        work.run();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        System.out.println("WARNING: " + this.name + " gone wrong");
+                    } finally {
+                        if (this.running.decrementAndGet() == 0) {
+                            for (int j = 0; j < nextThreads; j++) {
+                                try {
+                                    this.output.put(END);
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                    break;
+                                }
+                            }
+                        }
+                    }
+                });
+            }
+            return pool;
+        }
+
+        <T> T process(Step<T> step, String path) {
+            try {
+                return step.run();
+            } catch (Exception e) {
+                this.errors.incrementAndGet();
+                e.printStackTrace();
+                System.out.println("WARNING: " + this.name + " of " + path + " gone wrong");
+                return null;
+            }
+        }
+
+        void done(long itemStart) {
+            this.items.incrementAndGet();
+            this.busyNanos.addAndGet(System.nanoTime() - itemStart);
+        }
+
+        void put(Item item) throws InterruptedException {
+            this.output.put(item);
+            int depth = this.output.size();
+            this.depthSum.addAndGet(depth);
+            this.depthSamples.incrementAndGet();
+            this.maxDepth.accumulateAndGet(depth, Math::max);
+        }
+
+        String stats(long wallNanos) {
+            long items = this.items.get();
+            long samples = this.depthSamples.get();
+            String stats = this.name + ": threads=" + this.threads
+                    + ", items=" + items
+                    + ", errors=" + this.errors.get()
+                    + ", busy=" + TimeUnit.NANOSECONDS.toMillis(this.busyNanos.get()) + " ms"
+                    + ", throughput=" + String.format("%.2f", wallNanos == 0 ? 0 : items * 1e9 / wallNanos) + "/s";
+            if (this.output != null) {
+                stats += ", queue avg=" + String.format("%.2f", samples == 0 ? 0 : (double) this.depthSum.get() / samples)
+                        + " max=" + this.maxDepth.get();
+            }
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package helpers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Results of a batch of file operations in the order of the files.
+ * A failed file keeps its place with a null value, its error is stored by path.
+ */
+public class BatchResult<T> {
+    final public List<T> values;
+    final public Map<String, Exception> errors;
+
+    BatchResult(List<T> values, LinkedHashMap<String, Exception> errors) {
+        this.values = Collections.unmodifiableList(values);
+        this.errors = Collections.unmodifiableMap(errors);
+    }
+
+    public boolean isCompleted() {
+        return this.errors.isEmpty();
+    }
+
+    /**
+     * Values of the files that succeeded, in order.
+     */
+    public List<T> successful() {
+        List<T> values = new ArrayList<>();
+        for (T value : this.values) {
+            if (value != null) {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+}
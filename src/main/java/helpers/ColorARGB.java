@@ -1,23 +1,66 @@
 package helpers;
 
+/**
+ * Packed pixel codec: channels, HSV and luminance as plain ints, nothing is allocated per pixel, so the methods
+ * can be called from per-pixel loops and Aparapi kernels alike.
+ * HSV is packed as hue (signed, upper 16 bits), saturation 0..100 (bits 8..15) and value 0..255 (bits 0..7).
+ */
 public class ColorARGB {
-    public static int argb2int(int[] argb) {
-        return (0xFF & argb[0]) << 24 | (0xFF & argb[1]) << 16 | (0xFF & argb[2]) << 8 | (0xFF & argb[3]);
+    public static int alpha(int argb) {
+        return (argb >> 24) & 0xFF;
     }
 
-    public static int[] int2argb(int argb) {
-        return new int[]{(argb >> 24) & 0xFF, (argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF};
+    public static int red(int argb) {
+        return (argb >> 16) & 0xFF;
     }
 
-    public static int[] argb2hsv(int[] argb) {
-        double rNorm = (double) argb[1] / 255;
-        double gNorm = (double) argb[2] / 255;
-        double bNorm = (double) argb[3] / 255;
+    public static int green(int argb) {
+        return (argb >> 8) & 0xFF;
+    }
+
+    public static int blue(int argb) {
+        return argb & 0xFF;
+    }
+
+    public static int pack(int alpha, int red, int green, int blue) {
+        return (0xFF & alpha) << 24 | (0xFF & red) << 16 | (0xFF & green) << 8 | (0xFF & blue);
+    }
+
+    /**
+     * Gray level 0..255 with the weights of {@link filters.Color#grayscale}.
+     */
+    public static int luminance(int argb) {
+        return (int) (0.2989 * red(argb) + 0.5870 * green(argb) + 0.1140 * blue(argb));
+    }
+
+    public static int packHsv(int hue, int saturation, int value) {
+        return hue << 16 | (saturation & 0xFF) << 8 | (value & 0xFF);
+    }
+
+    public static int hue(int hsv) {
+        return hsv >> 16;
+    }
+
+    public static int saturation(int hsv) {
+        return (hsv >> 8) & 0xFF;
+    }
+
+    public static int value(int hsv) {
+        return hsv & 0xFF;
+    }
+
+    /**
+     * Packed HSV of the color, hue is the sector of the dominant channel times 180 as used by the red thresholds.
+     */
+    public static int hsv(int argb) {
+        double rNorm = (double) red(argb) / 255;
+        double gNorm = (double) green(argb) / 255;
+        double bNorm = (double) blue(argb) / 255;
         double cMax = BaseMath.max(rNorm, BaseMath.max(gNorm, bNorm));
         double cMin = BaseMath.min(rNorm, BaseMath.min(gNorm, bNorm));
         int v = (int) (cMax * 255);
         if (cMax == cMin) {
-            return new int[]{0, 0, v};
+            return packHsv(0, 0, v);
         }
         double c = cMax - cMin;
         int s = (int) (c / cMax * 100);
@@ -33,6 +76,16 @@ public class ColorARGB {
             h = (int) (4 + gc - rc);
         }
         h = (h % 6) * 180;
-        return new int[]{h, s, v};
+        return packHsv(h, s, v);
+    }
+
+    /**
+     * True if every component of the packed HSV lies in [from, to].
+     */
+    public static boolean inRange(int hsv, int hFrom, int sFrom, int vFrom, int hTo, int sTo, int vTo) {
+        int h = hue(hsv);
+        int s = saturation(hsv);
+        int v = value(hsv);
+        return hFrom <= h && h <= hTo && sFrom <= s && s <= sTo && vFrom <= v && v <= vTo;
     }
 }
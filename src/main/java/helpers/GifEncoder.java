@@ -0,0 +1,515 @@
+package helpers;
+
+import model.Image;
+import model.ImageView;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Animated GIF writer that encodes frames in parallel: every frame is quantized to its own palette of at most 256
+ * colors by median cut over a 15-bit color histogram and LZW-compressed by a task on the {@link ParallelRuntime}
+ * pool, while finished frames are written to the stream in order. At most two frames per worker are in flight,
+ * so the animation is never held in memory as a whole.
+ * <p>
+ * With delta frames on (the default) a frame of the same size as the previous one is written as the bounding box of
+ * the pixels that changed, drawn over the previous frame. With transparency on, unchanged pixels inside the box are
+ * written as the transparent index as well, which leaves longer runs for LZW at the cost of one palette entry.
+ * <pre>
+ * try (GifEncoder encoder = new GifEncoder(out, w, h, 10, true)) {
+ *     for (Image frame : frames) {
+ *         encoder.writeFrame(frame);
+ *     }
+ * }
+ * </pre>
+ */
+public class GifEncoder implements AutoCloseable {
+    public static final int MAX_COLORS = 256;
+    private static final int TASKS_PER_WORKER = 2;
+    private static final int BIN_BITS = 5;
+    private static final int BINS = 1 << (3 * BIN_BITS);
+
+    final public int w;
+    final public int h;
+    private final OutputStream out;
+    final public boolean delta;
+    final public boolean transparency;
+    private final int delay;
+    private final ArrayDeque<ForkJoinTask<Frame>> pending = new ArrayDeque<>();
+    private Image previous = null;
+
+    /**
+     * Writes the header, frames of up to w x h pixels are drawn at the top left corner.
+     *
+     * @param delayMs delay between frames, rounded down to hundredths of a second
+     */
+    public GifEncoder(OutputStream out, int w, int h, int delayMs, boolean loop) throws IOException {
+        this(out, w, h, delayMs, loop, true, false);
+    }
+
+    public GifEncoder(
+            OutputStream out, int w, int h, int delayMs, boolean loop, boolean delta, boolean transparency
+    ) throws IOException {
+        this.out = out;
+        this.w = w;
+        this.h = h;
+        this.delta = delta;
+        this.transparency = transparency;
+        this.delay = delayMs / 10;
+        out.write(new byte[]{'G', 'I', 'F', '8', '9', 'a'});
+        writeShort(w);
+        writeShort(h);
+        // no global color table, 8 bits of color resolution
+        out.write(new byte[]{0x70, 0, 0});
+        if (loop) {
+            out.write(new byte[]{0x21, (byte) 0xFF, 0x0B, 'N', 'E', 'T', 'S', 'C', 'A', 'P', 'E', '2', '.', '0', 3, 1, 0, 0, 0});
+        }
+    }
+
+    /**
+     * Queues the frame for encoding, writes the frames that are ready. The frame must not change until the next
+     * one is written, it is the reference of the next delta frame.
+     */
+    public void writeFrame(Image frame) throws IOException {
+        if (frame.w > this.w || frame.h > this.h) {
+            throw new IllegalArgumentException("frame " + frame.w + "x" + frame.h + " does not fit " + this.w + "x" + this.h);
+        }
+        Image prev = this.delta && this.previous != null && this.previous.w == frame.w && this.previous.h == frame.h
+                ? this.previous : null;
+        boolean currTransparency = this.transparency;
+        this.pending.add(ParallelRuntime.getPool().submit(() -> encode(frame, prev, currTransparency)));
+        this.previous = frame;
+        while (this.pending.size() >= ParallelRuntime.getParallelism() * TASKS_PER_WORKER
+                || !this.pending.isEmpty() && this.pending.peek().isDone()) {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        Frame frame;
+        try {
+            frame = this.pending.poll().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while encoding gif", e);
+        } catch (ExecutionException e) {
+            throw new IOException("cannot encode gif frame", e.getCause());
+        }
+        // graphic control extension: keep the frame under the next one, delay, transparent index
+        this.out.write(new byte[]{0x21, (byte) 0xF9, 4, (byte) (frame.transparent >= 0 ? 0x05 : 0x04)});
+        writeShort(this.delay);
+        this.out.write(new byte[]{(byte) BaseMath.max(frame.transparent, 0), 0});
+        // image descriptor with a local color table
+        this.out.write(0x2C);
+        writeShort(frame.left);
+        writeShort(frame.top);
+        writeShort(frame.w);
+        writeShort(frame.h);
+        this.out.write(0x80 | (frame.bits - 1));
+        this.out.write(frame.palette);
+        this.out.write(BaseMath.max(2, frame.bits));
+        this.out.write(frame.data);
+    }
+
+    /**
+     * Writes the remaining frames and the trailer, the stream is left open.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            while (!this.pending.isEmpty()) {
+                writeNext();
+            }
+        } finally {
+            for (ForkJoinTask<Frame> task : this.pending) {
+                task.cancel(true);
+            }
+            this.pending.clear();
+            this.previous = null;
+        }
+        this.out.write(0x3B);
+        this.out.flush();
+    }
+
+    private void writeShort(int value) throws IOException {
+        this.out.write(value & 0xFF);
+        this.out.write((value >> 8) & 0xFF);
+    }
+
+    private static class Frame {
+        int left;
+        int top;
+        int w;
+        int h;
+        int bits;
+        int transparent = -1;
+        byte[] palette;
+        byte[] data;
+    }
+
+    /**
+     * Quantizes and compresses the frame, or only its changed box if there is a previous frame.
+     */
+    private static Frame encode(Image image, Image previous, boolean transparency) {
+        Frame frame = new Frame();
+        Image prev = null;
+        if (previous != null) {
+            int[] box = changedBox(image, previous);
+            frame.left = box[0];
+            frame.top = box[1];
+            image = new ImageView(image, box[0], box[1], box[2], box[3]);
+            if (transparency) {
+                prev = new ImageView(previous, box[0], box[1], box[2], box[3]);
+            }
+        }
+        frame.w = image.w;
+        frame.h = image.h;
+        int[] palette = new int[MAX_COLORS];
+        int[] lut = quantize(image, prev, palette, prev != null ? MAX_COLORS - 1 : MAX_COLORS);
+        int colors = lut[BINS];
+        if (prev != null) {
+            frame.transparent = colors++;
+        }
+        frame.bits = 1;
+        while ((1 << frame.bits) < colors) {
+            frame.bits++;
+        }
+        frame.palette = new byte[3 * (1 << frame.bits)];
+        for (int i = 0; i < lut[BINS]; i++) {
+            frame.palette[3 * i] = (byte) (palette[i] >> 16);
+            frame.palette[3 * i + 1] = (byte) (palette[i] >> 8);
+            frame.palette[3 * i + 2] = (byte) palette[i];
+        }
+        byte[] indices = new byte[image.w * image.h];
+        int[] row = new int[image.w];
+        int[] prevRow = new int[image.w];
+        for (int y = 0; y < image.h; y++) {
+            image.getRow(y, 0, image.w, row, 0);
+            if (prev != null) {
+                prev.getRow(y, 0, image.w, prevRow, 0);
+            }
+            for (int x = 0; x < image.w; x++) {
+                indices[y * image.w + x] = (byte) (prev != null && row[x] == prevRow[x]
+                        ? frame.transparent : lut[bin(row[x])]);
+            }
+        }
+        frame.data = new LzwEncoder(BaseMath.max(2, frame.bits)).encode(indices, 0, indices.length);
+        return frame;
+    }
+
+    /**
+     * {left, top, w, h} of the pixels that differ from the previous frame of the same size, rows are compared in
+     * parallel. An unchanged frame gives the top left pixel, a GIF frame can not be empty.
+     */
+    static int[] changedBox(Image image, Image previous) {
+        int w = image.w;
+        int[] minX = new int[image.h];
+        int[] maxX = new int[image.h];
+        ParallelRuntime.parallelFor("gif delta of " + image.name, 0, image.h, ParallelRuntime.rowGrain(w), (start, end) -> {
+            int[] row = new int[w];
+            int[] prevRow = new int[w];
+            for (int y = start; y < end; y++) {
+                image.getRow(y, 0, w, row, 0);
+                previous.getRow(y, 0, w, prevRow, 0);
+                int left = 0;
+                while (left < w && row[left] == prevRow[left]) {
+                    left++;
+                }
+                int right = w - 1;
+                while (right > left && row[right] == prevRow[right]) {
+                    right--;
+                }
+                minX[y] = left;
+                maxX[y] = right;
+            }
+        });
+        int left = w;
+        int right = -1;
+        int top = -1;
+        int bottom = -1;
+        for (int y = 0; y < image.h; y++) {
+            if (minX[y] < w) {
+                left = BaseMath.min(left, minX[y]);
+                right = BaseMath.max(right, maxX[y]);
+                top = top < 0 ? y : top;
+                bottom = y;
+            }
+        }
+        if (top < 0) {
+            return new int[]{0, 0, 1, 1};
+        }
+        return new int[]{left, top, right - left + 1, bottom - top + 1};
+    }
+
+    private static int bin(int color) {
+        return (color >> 9 & 0x7C00) | (color >> 6 & 0x3E0) | (color >> 3 & 0x1F);
+    }
+
+    /**
+     * Median cut over the 15-bit histogram of the image: the box with the most pixels is split at the weighted
+     * median of its longest channel until there are maxColors boxes, every box gets the mean color of its
+     * pixels. Pixels equal to the previous frame (if any) are skipped. Returns the bin -> palette index table,
+     * its last element is the number of colors.
+     */
+    static int[] quantize(Image image, Image previous, int[] palette, int maxColors) {
+        long[] counts = new long[BINS];
+        long[] sums = new long[3 * BINS];
+        int[] row = new int[image.w];
+        int[] prevRow = new int[image.w];
+        long total = 0;
+        for (int y = 0; y < image.h; y++) {
+            image.getRow(y, 0, image.w, row, 0);
+            if (previous != null) {
+                previous.getRow(y, 0, image.w, prevRow, 0);
+            }
+            for (int x = 0; x < image.w; x++) {
+                int color = row[x];
+                if (previous != null && color == prevRow[x]) {
+                    continue;
+                }
+                total++;
+                int bin = bin(color);
+                counts[bin]++;
+                sums[3 * bin] += (color >> 16) & 0xFF;
+                sums[3 * bin + 1] += (color >> 8) & 0xFF;
+                sums[3 * bin + 2] += color & 0xFF;
+            }
+        }
+        int used = 0;
+        int[] bins = new int[BINS];
+        for (int bin = 0; bin < BINS; bin++) {
+            if (counts[bin] > 0) {
+                bins[used++] = bin;
+            }
+        }
+        // boxes are ranges [starts[i], ends[i]) of bins
+        int[] starts = new int[MAX_COLORS];
+        int[] ends = new int[MAX_COLORS];
+        long[] weights = new long[MAX_COLORS];
+        int boxes = 1;
+        ends[0] = used;
+        weights[0] = total;
+        while (boxes < maxColors) {
+            int box = -1;
+            for (int i = 0; i < boxes; i++) {
+                if (ends[i] - starts[i] > 1 && (box < 0 || weights[i] > weights[box])) {
+                    box = i;
+                }
+            }
+            if (box < 0) {
+                break;
+            }
+            int shift = longestChannel(bins, starts[box], ends[box]);
+            // counting sort of the box by the 5-bit channel value
+            int[] sorted = new int[ends[box] - starts[box]];
+            int[] offsets = new int[33];
+            for (int i = starts[box]; i < ends[box]; i++) {
+                offsets[((bins[i] >> shift) & 0x1F) + 1]++;
+            }
+            for (int i = 1; i < offsets.length; i++) {
+                offsets[i] += offsets[i - 1];
+            }
+            for (int i = starts[box]; i < ends[box]; i++) {
+                sorted[offsets[(bins[i] >> shift) & 0x1F]++] = bins[i];
+            }
+            long half = weights[box] / 2;
+            long weight = 0;
+            int split = 0;
+            while (split < sorted.length - 1 && weight + counts[sorted[split]] <= half) {
+                weight += counts[sorted[split]];
+                bins[starts[box] + split] = sorted[split];
+                split++;
+            }
+            if (split == 0) {
+                weight += counts[sorted[0]];
+                bins[starts[box]] = sorted[0];
+                split = 1;
+            }
+            for (int i = split; i < sorted.length; i++) {
+                bins[starts[box] + i] = sorted[i];
+            }
+            starts[boxes] = starts[box] + split;
+            ends[boxes] = ends[box];
+            weights[boxes] = weights[box] - weight;
+            ends[box] = starts[box] + split;
+            weights[box] = weight;
+            boxes++;
+        }
+        int[] lut = new int[BINS + 1];
+        for (int i = 0; i < boxes; i++) {
+            long r = 0;
+            long g = 0;
+            long b = 0;
+            long count = 0;
+            for (int j = starts[i]; j < ends[i]; j++) {
+                int bin = bins[j];
+                r += sums[3 * bin];
+                g += sums[3 * bin + 1];
+                b += sums[3 * bin + 2];
+                count += counts[bin];
+                lut[bin] = i;
+            }
+            count = BaseMath.max(count, 1);
+            palette[i] = 0xFF000000 | (int) (r / count) << 16 | (int) (g / count) << 8 | (int) (b / count);
+        }
+        lut[BINS] = BaseMath.max(boxes, 1);
+        return lut;
+    }
+
+    /**
+     * Shift of the 5-bit channel (10 red, 5 green, 0 blue) with the widest range in the bins.
+     */
+    private static int longestChannel(int[] bins, int start, int end) {
+        int bestShift = 0;
+        int bestRange = -1;
+        for (int shift = 0; shift <= 10; shift += 5) {
+            int min = 0x1F;
+            int max = 0;
+            for (int i = start; i < end; i++) {
+                int value = (bins[i] >> shift) & 0x1F;
+                min = BaseMath.min(min, value);
+                max = BaseMath.max(max, value);
+            }
+            if (max - min > bestRange) {
+                bestRange = max - min;
+                bestShift = shift;
+            }
+        }
+        return bestShift;
+    }
+
+    /**
+     * GIF flavoured LZW (variable code size up to 12 bits, clear code when the table is full) writing data
+     * sub-blocks of up to 255 bytes, with the open addressing table of the classic compress implementation.
+     */
+    static class LzwEncoder {
+        private static final int MAX_BITS = 12;
+        private static final int MAX_MAX_CODE = 1 << MAX_BITS;
+        private static final int HSIZE = 5003;
+
+        private final int initBits;
+        private final int clearCode;
+        private final int eofCode;
+        private final int[] htab = new int[HSIZE];
+        private final int[] codetab = new int[HSIZE];
+        private final byte[] block = new byte[256];
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int nBits;
+        private int maxCode;
+        private int freeEnt;
+        private boolean clearFlag;
+        private int curAccum;
+        private int curBits;
+        private int blockSize;
+
+        LzwEncoder(int minCodeSize) {
+            this.initBits = minCodeSize + 1;
+            this.clearCode = 1 << minCodeSize;
+            this.eofCode = this.clearCode + 1;
+        }
+
+        byte[] encode(byte[] pixels, int from, int to) {
+            this.nBits = this.initBits;
+            this.maxCode = (1 << this.nBits) - 1;
+            this.freeEnt = this.clearCode + 2;
+            this.clearFlag = false;
+            int hshift = 0;
+            for (int fcode = HSIZE; fcode < 65536; fcode *= 2) {
+                hshift++;
+            }
+            hshift = 8 - hshift;
+            Arrays.fill(this.htab, -1);
+            output(this.clearCode);
+            int ent = from < to ? pixels[from] & 0xFF : 0;
+            outer:
+            for (int p = from + 1; p < to; p++) {
+                int c = pixels[p] & 0xFF;
+                int fcode = (c << MAX_BITS) + ent;
+                int i = (c << hshift) ^ ent;
+                if (this.htab[i] == fcode) {
+                    ent = this.codetab[i];
+                    continue;
+                }
+                if (this.htab[i] >= 0) {
+                    int disp = i == 0 ? 1 : HSIZE - i;
+                    do {
+                        i -= disp;
+                        if (i < 0) {
+                            i += HSIZE;
+                        }
+                        if (this.htab[i] == fcode) {
+                            ent = this.codetab[i];
+                            continue outer;
+                        }
+                    } while (this.htab[i] >= 0);
+                }
+                output(ent);
+                ent = c;
+                if (this.freeEnt < MAX_MAX_CODE) {
+                    this.codetab[i] = this.freeEnt++;
+                    this.htab[i] = fcode;
+                } else {
+                    Arrays.fill(this.htab, -1);
+                    this.freeEnt = this.clearCode + 2;
+                    this.clearFlag = true;
+                    output(this.clearCode);
+                }
+            }
+            if (from < to) {
+                output(ent);
+            }
+            output(this.eofCode);
+            flushBlock();
+            this.out.write(0);
+            return this.out.toByteArray();
+        }
+
+        private void output(int code) {
+            this.curAccum &= (1 << this.curBits) - 1;
+            this.curAccum = this.curBits > 0 ? this.curAccum | (code << this.curBits) : code;
+            this.curBits += this.nBits;
+            while (this.curBits >= 8) {
+                addByte(this.curAccum & 0xFF);
+                this.curAccum >>= 8;
+                this.curBits -= 8;
+            }
+            if (this.freeEnt > this.maxCode || this.clearFlag) {
+                if (this.clearFlag) {
+                    this.nBits = this.initBits;
+                    this.maxCode = (1 << this.nBits) - 1;
+                    this.clearFlag = false;
+                } else {
+                    this.nBits++;
+                    this.maxCode = this.nBits == MAX_BITS ? MAX_MAX_CODE : (1 << this.nBits) - 1;
+                }
+            }
+            if (code == this.eofCode) {
+                while (this.curBits > 0) {
+                    addByte(this.curAccum & 0xFF);
+                    this.curAccum >>= 8;
+                    this.curBits -= 8;
+                }
+            }
+        }
+
+        private void addByte(int value) {
+            this.block[++this.blockSize] = (byte) value;
+            if (this.blockSize == 255) {
+                flushBlock();
+            }
+        }
+
+        private void flushBlock() {
+            if (this.blockSize > 0) {
+                this.block[0] = (byte) this.blockSize;
+                this.out.write(this.block, 0, this.blockSize + 1);
+                this.blockSize = 0;
+            }
+        }
+    }
+}
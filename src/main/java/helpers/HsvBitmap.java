@@ -0,0 +1,85 @@
+package helpers;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sets of HSV ranges compiled into a membership bitmap over all 2^24 RGB colors (2 MB), so testing a pixel against
+ * any number of ranges is one bit lookup instead of an HSV conversion. Ranges are flat groups of six values
+ * {hFrom, sFrom, vFrom, hTo, sTo, vTo} tested with {@link ColorARGB#inRange}, a color belongs to the set if it is
+ * in any of them. Bitmaps are built in parallel on first use and cached per range set for the life of the process.
+ * <pre>
+ * int[] bitmap = HsvBitmap.get(HsvBitmap.RED_RANGES);
+ * boolean isRed = HsvBitmap.contains(bitmap, color);
+ * </pre>
+ */
+public class HsvBitmap {
+    public static final int WORDS = (1 << 24) / 32;
+    /**
+     * The thresholds of {@link filters.Color#redMask}.
+     */
+    public static final int[] RED_RANGES = new int[]{
+            0, 75, 50, 8, 255, 255,
+            172, 75, 50, 180, 255, 255
+    };
+
+    private static final ConcurrentHashMap<String, int[]> bitmaps = new ConcurrentHashMap<>();
+    private static final AtomicLong builds = new AtomicLong();
+    private static final AtomicLong buildNanos = new AtomicLong();
+
+    /**
+     * Cached bitmap of the range set, the returned array must not be changed.
+     */
+    public static int[] get(int... ranges) {
+        if (ranges.length % 6 != 0) {
+            throw new IllegalArgumentException("HSV ranges must be groups of 6 values, got " + ranges.length);
+        }
+        int[] currRanges = ranges.clone();
+        return bitmaps.computeIfAbsent(Arrays.toString(currRanges), key -> build(currRanges));
+    }
+
+    private static int[] build(int[] ranges) {
+        long startTime = System.nanoTime();
+        int[] bitmap = new int[WORDS];
+        // one red value covers 2048 whole words, so tasks never share a word
+        ParallelRuntime.parallelFor("HSV bitmap", 0, 256, 1, (start, end) -> {
+            for (int rgb = start << 16; rgb < end << 16; rgb++) {
+                int hsv = ColorARGB.hsv(rgb);
+                for (int i = 0; i < ranges.length; i += 6) {
+                    if (ColorARGB.inRange(hsv, ranges[i], ranges[i + 1], ranges[i + 2],
+                            ranges[i + 3], ranges[i + 4], ranges[i + 5])) {
+                        bitmap[rgb >>> 5] |= 1 << (rgb & 31);
+                        break;
+                    }
+                }
+            }
+        });
+        builds.incrementAndGet();
+        buildNanos.addAndGet(System.nanoTime() - startTime);
+        return bitmap;
+    }
+
+    /**
+     * Membership of the color (alpha ignored), plain array arithmetic so kernels can call it on a captured bitmap.
+     */
+    public static boolean contains(int[] bitmap, int argb) {
+        int rgb = argb & 0xFFFFFF;
+        return ((bitmap[rgb >>> 5] >>> (rgb & 31)) & 1) != 0;
+    }
+
+    public static void clear() {
+        bitmaps.clear();
+    }
+
+    public static void resetStats() {
+        builds.set(0);
+        buildNanos.set(0);
+    }
+
+    public static String stats() {
+        return "bitmaps=" + bitmaps.size()
+                + ", builds=" + builds.get()
+                + ", build time=" + buildNanos.get() / 1000000 + " ms";
+    }
+}
@@ -0,0 +1,211 @@
+package helpers;
+
+import model.GrayImage;
+import model.Image;
+import model.ImageView;
+import model.MaskImage;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Conversion between {@link Image} and {@link BufferedImage}.
+ * For TYPE_INT_ARGB and TYPE_INT_RGB the grid is shared with the raster as its DataBufferInt, so both objects
+ * see each other's writes. {@link GrayImage} and {@link MaskImage} are wrapped the same way as TYPE_BYTE_GRAY and
+ * TYPE_BYTE_BINARY rasters, an {@link ImageView} is materialized first. Other types are converted with bulk
+ * raster reads/writes, row bands in parallel.
+ */
+public class ImageBridge {
+    private static final int[] MASKS_RGB = new int[]{0x00FF0000, 0x0000FF00, 0x000000FF};
+    private static final int[] MASKS_ARGB = new int[]{0x00FF0000, 0x0000FF00, 0x000000FF, 0xFF000000};
+
+    public static boolean isShareable(int type) {
+        return type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB;
+    }
+
+    public static Image toImage(String name, BufferedImage image) {
+        return new Image(name, toGrid(image), image.getWidth(), image.getHeight(), image.getType());
+    }
+
+    public static BufferedImage toBufferedImage(Image image) {
+        if (image instanceof ImageView) {
+            return toBufferedImage(((ImageView) image).materialize());
+        }
+        if (image instanceof GrayImage && ((GrayImage) image).pixels != null) {
+            GrayImage grayImage = (GrayImage) image;
+            return wrap(grayImage.pixels, grayImage.w, grayImage.h, BufferedImage.TYPE_BYTE_GRAY);
+        }
+        if (image instanceof MaskImage) {
+            MaskImage maskImage = (MaskImage) image;
+            return wrap(maskImage.bits, maskImage.w, maskImage.h, BufferedImage.TYPE_BYTE_BINARY);
+        }
+        int type = image.type == BufferedImage.TYPE_CUSTOM ? BufferedImage.TYPE_INT_ARGB : image.type;
+        if (image.grid != null && isShareable(type) && image.grid.length >= image.w * image.h) {
+            return wrap(image.grid, image.w, image.h, type);
+        }
+        BufferedImage bImage = new BufferedImage(image.w, image.h, type);
+        int w = image.w;
+        int[] bandOffsets = byteLayout(bImage);
+        ParallelRuntime.parallelFor("toBufferedImage in " + image.name, 0, image.h, ParallelRuntime.rowGrain(w), (start, end) -> {
+            int[] row = image.grid != null ? image.grid : new int[w];
+            for (int y = start; y < end; y++) {
+                int offset = 0;
+                if (image.grid != null) {
+                    offset = y * w;
+                } else {
+                    image.getRow(y, 0, w, row, 0);
+                }
+                if (bandOffsets != null) {
+                    writeBytes(row, offset, bImage, y, bandOffsets);
+                } else {
+                    bImage.setRGB(0, y, w, 1, row, offset, w);
+                }
+            }
+        });
+        return bImage;
+    }
+
+    public static int[] toGrid(BufferedImage image) {
+        int[] shared = sharedGrid(image);
+        if (shared != null) {
+            return shared;
+        }
+        int w = image.getWidth();
+        int h = image.getHeight();
+        int[] grid = new int[w * h];
+        if (!readBytes(image, grid)) {
+            ParallelRuntime.parallelFor("toGrid", 0, h, ParallelRuntime.rowGrain(w),
+                    (start, end) -> image.getRGB(0, start, w, end - start, grid, start * w, w)
+            );
+        }
+        return grid;
+    }
+
+    private static BufferedImage wrap(int[] grid, int w, int h, int type) {
+        boolean hasAlpha = type == BufferedImage.TYPE_INT_ARGB;
+        DataBufferInt dataBuffer = new DataBufferInt(grid, w * h);
+        WritableRaster raster = Raster.createPackedRaster(
+                dataBuffer, w, h, w, hasAlpha ? MASKS_ARGB : MASKS_RGB, null
+        );
+        ColorModel colorModel = hasAlpha
+                ? ColorModel.getRGBdefault()
+                : new DirectColorModel(24, MASKS_RGB[0], MASKS_RGB[1], MASKS_RGB[2], 0);
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    private static BufferedImage wrap(byte[] data, int w, int h, int type) {
+        DataBufferByte dataBuffer = new DataBufferByte(data, data.length);
+        WritableRaster raster = type == BufferedImage.TYPE_BYTE_BINARY
+                ? Raster.createPackedRaster(dataBuffer, w, h, 1, null)
+                : Raster.createInterleavedRaster(dataBuffer, w, h, w, 1, new int[]{0}, null);
+        ColorModel colorModel = new BufferedImage(1, 1, type).getColorModel();
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    private static int[] sharedGrid(BufferedImage image) {
+        if (!isShareable(image.getType())) {
+            return null;
+        }
+        WritableRaster raster = image.getRaster();
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        if (!(dataBuffer instanceof DataBufferInt) || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)) {
+            return null;
+        }
+        SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        int w = image.getWidth();
+        int h = image.getHeight();
+        int[] data = ((DataBufferInt) dataBuffer).getData();
+        if (raster.getParent() != null || dataBuffer.getOffset() != 0 || sampleModel.getScanlineStride() != w
+                || raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0
+                || data.length != w * h) {
+            return null;
+        }
+        return data;
+    }
+
+    /**
+     * Band offsets of R, G, B and (optionally) A for interleaved 8-bit sRGB rasters, null for other layouts.
+     */
+    private static int[] byteLayout(BufferedImage image) {
+        int type = image.getType();
+        if (type != BufferedImage.TYPE_3BYTE_BGR && type != BufferedImage.TYPE_4BYTE_ABGR) {
+            return null;
+        }
+        WritableRaster raster = image.getRaster();
+        if (!(raster.getDataBuffer() instanceof DataBufferByte)
+                || !(raster.getSampleModel() instanceof ComponentSampleModel)
+                || !(image.getColorModel() instanceof ComponentColorModel)
+                || raster.getParent() != null || raster.getDataBuffer().getOffset() != 0
+                || raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0) {
+            return null;
+        }
+        ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+        int[] bandOffsets = sampleModel.getBandOffsets();
+        int[] bankIndices = sampleModel.getBankIndices();
+        for (int bankIndex : bankIndices) {
+            if (bankIndex != 0) {
+                return null;
+            }
+        }
+        return bandOffsets;
+    }
+
+    private static boolean readBytes(BufferedImage image, int[] grid) {
+        int[] bandOffsets = byteLayout(image);
+        if (bandOffsets == null) {
+            return false;
+        }
+        ComponentSampleModel sampleModel = (ComponentSampleModel) image.getRaster().getSampleModel();
+        byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int w = image.getWidth();
+        int pixelStride = sampleModel.getPixelStride();
+        int scanlineStride = sampleModel.getScanlineStride();
+        int rOffset = bandOffsets[0];
+        int gOffset = bandOffsets[1];
+        int bOffset = bandOffsets[2];
+        boolean hasAlpha = bandOffsets.length > 3;
+        int aOffset = hasAlpha ? bandOffsets[3] : 0;
+        return ParallelRuntime.parallelFor("toGrid", 0, image.getHeight(), ParallelRuntime.rowGrain(w), (start, end) -> {
+            for (int y = start; y < end; y++) {
+                int k = y * scanlineStride;
+                int i = y * w;
+                for (int x = 0; x < w; x++, i++, k += pixelStride) {
+                    int a = hasAlpha ? data[k + aOffset] & 0xFF : 0xFF;
+                    grid[i] = a << 24 | (data[k + rOffset] & 0xFF) << 16 | (data[k + gOffset] & 0xFF) << 8
+                            | (data[k + bOffset] & 0xFF);
+                }
+            }
+        });
+    }
+
+    private static void writeBytes(int[] row, int offset, BufferedImage image, int y, int[] bandOffsets) {
+        ComponentSampleModel sampleModel = (ComponentSampleModel) image.getRaster().getSampleModel();
+        byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int w = image.getWidth();
+        int pixelStride = sampleModel.getPixelStride();
+        int rOffset = bandOffsets[0];
+        int gOffset = bandOffsets[1];
+        int bOffset = bandOffsets[2];
+        boolean hasAlpha = bandOffsets.length > 3;
+        int aOffset = hasAlpha ? bandOffsets[3] : 0;
+        int k = y * sampleModel.getScanlineStride();
+        for (int i = offset; i < offset + w; i++, k += pixelStride) {
+            int color = row[i];
+            if (hasAlpha) {
+                data[k + aOffset] = (byte) (color >>> 24);
+            }
+            data[k + rOffset] = (byte) (color >> 16);
+            data[k + gOffset] = (byte) (color >> 8);
+            data[k + bOffset] = (byte) color;
+        }
+    }
+}
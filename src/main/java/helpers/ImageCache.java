@@ -0,0 +1,107 @@
+package helpers;
+
+import model.Image;
+import model.ImageView;
+import model.MappedImage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of decoded images keyed by canonical path, file size and modification time, so a changed file is
+ * decoded again. Keeps at most {@code mpiki.cache.bytes} bytes of pixels (256 MB by default, 0 disables it).
+ * Callers get copy-on-write {@link ImageView}s of the cached image: reads go to the shared pixels (heap images
+ * keep their grid, so GPU backends and grid fast paths read it without a copy), the first write copies them,
+ * and releasing a view never touches the cached image. Evicted images are left to GC, views handed
+ * out earlier keep working. Mapped (.mpimg) images are not cached, the page cache already shares them.
+ */
+public class ImageCache {
+    public static final String CACHE_BYTES_PROPERTY = "mpiki.cache.bytes";
+
+    public interface Loader {
+        Image load(File file) throws IOException;
+    }
+
+    private static final LinkedHashMap<String, Image> images = new LinkedHashMap<>(16, 0.75f, true);
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+    private static long cachedBytes = 0;
+    private static volatile long maxCachedBytes = Long.getLong(CACHE_BYTES_PROPERTY, 256L << 20);
+
+    public static synchronized void setMaxCachedBytes(long bytes) {
+        maxCachedBytes = bytes;
+        evict(0);
+    }
+
+    /**
+     * Copy-on-write view of the file's image, loaded by the loader on a miss.
+     */
+    public static Image get(File file, Loader loader) throws IOException {
+        String key = file.getCanonicalPath() + "|" + file.length() + "|" + file.lastModified();
+        Image image;
+        synchronized (ImageCache.class) {
+            image = images.get(key);
+        }
+        if (image != null) {
+            hits.incrementAndGet();
+            return new ImageView(image, 0, 0, image.w, image.h);
+        }
+        misses.incrementAndGet();
+        image = loader.load(file);
+        long bytes = bytes(image);
+        if (image instanceof MappedImage || bytes > maxCachedBytes) {
+            return image;
+        }
+        synchronized (ImageCache.class) {
+            Image cached = images.get(key);
+            if (cached != null) {
+                image = cached;
+            } else {
+                evict(bytes);
+                images.put(key, image);
+                cachedBytes += bytes;
+            }
+        }
+        return new ImageView(image, 0, 0, image.w, image.h);
+    }
+
+    private static long bytes(Image image) {
+        return image.grid != null ? (long) image.grid.length * Integer.BYTES : image.size * Integer.BYTES;
+    }
+
+    /**
+     * Drops least recently used images until {@code bytes} more fit into the budget.
+     */
+    private static void evict(long bytes) {
+        Iterator<Map.Entry<String, Image>> iterator = images.entrySet().iterator();
+        while (cachedBytes + bytes > maxCachedBytes && iterator.hasNext()) {
+            cachedBytes -= bytes(iterator.next().getValue());
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    public static synchronized void clear() {
+        images.clear();
+        cachedBytes = 0;
+    }
+
+    public static void resetStats() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    public static synchronized String stats() {
+        return "hits=" + hits.get()
+                + ", misses=" + misses.get()
+                + ", evictions=" + evictions.get()
+                + ", images=" + images.size()
+                + ", cached=" + cachedBytes / (1 << 20) + " MB";
+    }
+}
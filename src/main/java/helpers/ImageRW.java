@@ -1,35 +1,51 @@
 package helpers;
 
+import filters.Color;
+import filters.ColorPipeline;
 import filters.Geometric;
 import filters.GeometricParGPU;
 import filters.GeometricSeq;
 import model.Image;
+import model.MappedImage;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
-import javax.imageio.stream.FileImageOutputStream;
-import javax.imageio.stream.ImageOutputStream;
 
 public class ImageRW {
     static final String[] IMAGE_FORMATS = new String[]{
-            "png", "jpg"
+            "png", "jpg", "mpimg"
     };
     private static final String DOT = ".";
-    private static final String IMAGE_FORMAT_DEFAULT = "png";
+    static final String IMAGE_FORMAT_DEFAULT = "png";
     private static final String GIF_FORMAT = "gif";
+    private static final String RAW_FORMAT = "mpimg";
     private static final String DIR_DATA_PATH = "src/main/resources".replace("/", File.separator);
     private static final String DIR_INPUT_PATH = "input";
     private static final String DIR_OUTPUT_PATH = "output";
     private static final int IMAGE_TYPE = BufferedImage.TYPE_INT_RGB;
+    public static final int IO_CONCURRENCY = Integer.getInteger("mpiki.io.concurrency", 64);
     private static final Geometric geometric = new GeometricSeq();
+    static final PngEncoder pngEncoder = new PngEncoder();
 
     public static String joinPath(String... args) {
         List<String> values = new ArrayList<>(List.of(args));
@@ -39,7 +55,7 @@ public class ImageRW {
         );
     }
 
-    private static String checkFormat(String path, String format) {
+    static String checkFormat(String path, String format) {
         if (path.contains(DOT)) {
             path = path.split("\\.")[0];
         }
@@ -70,10 +86,85 @@ public class ImageRW {
         }
     }
 
+    /**
+     * Saves an image as png with the parallel {@link PngEncoder}.
+     */
+    public static void saveImage(Image image, String path) {
+        String fullPath = joinPath(DIR_DATA_PATH, DIR_OUTPUT_PATH, checkFormat(path, IMAGE_FORMAT_DEFAULT));
+        try {
+            pngEncoder.write(image, new File(fullPath));
+        } catch (IOException e) {
+            System.out.println("WARNING: cannot save image to " + fullPath);
+        }
+    }
+
+    private static boolean isRaw(File file) {
+        return file.getName().endsWith(DOT + RAW_FORMAT);
+    }
+
+    private static Image loadRawImage(File image) {
+        try {
+            return MappedImage.open(image);
+        } catch (IOException e) {
+            System.out.println("WARNING: cannot load raw image from " + image.getPath());
+            return new Image(image.getName(), 100, 100, IMAGE_TYPE);
+        }
+    }
+
+    /**
+     * Loads a png ({@link PngDecoder}), jpg or raw image, failing instead of falling back to a placeholder.
+     */
+    static Image loadImage(File image) throws IOException {
+        if (isRaw(image)) {
+            return MappedImage.open(image);
+        }
+        if (image.getName().endsWith(DOT + IMAGE_FORMAT_DEFAULT)) {
+            try {
+                return PngDecoder.read(image);
+            } catch (PngDecoder.UnsupportedPngException e) {
+                // ImageIO reads the rest, e.g. interlaced or 16-bit files
+            }
+        }
+        BufferedImage bImage = ImageIO.read(image);
+        if (bImage == null) {
+            throw new IOException("no reader for " + image.getPath());
+        }
+        return ImageBridge.toImage(image.getName(), bImage);
+    }
+
+    public static Image loadRawImage(String path) {
+        String fullPath = joinPath(DIR_DATA_PATH, DIR_INPUT_PATH, checkFormat(path, RAW_FORMAT));
+        return loadRawImage(new File(fullPath));
+    }
+
+    public static void saveRawImage(Image image, String path) {
+        String fullPath = joinPath(DIR_DATA_PATH, DIR_OUTPUT_PATH, checkFormat(path, RAW_FORMAT));
+        try {
+            MappedImage.save(image, new File(fullPath));
+        } catch (IOException e) {
+            System.out.println("WARNING: cannot save raw image to " + fullPath);
+        }
+    }
+
+    public static void saveRawImages(List<Image> images, String path, String taskName) {
+        System.out.println("INFO: Saving raw images started...");
+        File dir = new File(joinPath(DIR_DATA_PATH, DIR_OUTPUT_PATH, path));
+        if (!dir.isDirectory() && !dir.mkdir()) {
+            System.out.println("WARNING: cannot create dir " + dir.getPath());
+        }
+        File dirTask = new File(joinPath(DIR_DATA_PATH, DIR_OUTPUT_PATH, path, taskName));
+        if (!dirTask.isDirectory() && !dirTask.mkdir()) {
+            System.out.println("WARNING: cannot create dir " + dirTask.getPath());
+        }
+        for (Image image : images) {
+            saveRawImage(image, joinPath(path, taskName, image.name));
+        }
+        System.out.println("INFO: Saving raw images completed");
+    }
+
     public static void saveImages(List<Image> images, String path, String taskName) {
         System.out.println("INFO: Saving images started...");
         for (Image image : images) {
-            BufferedImage result = image.getBufferedImage();
             File dir = new File(joinPath(DIR_DATA_PATH, DIR_OUTPUT_PATH, path));
             if (!dir.isDirectory() && !dir.mkdir()) {
                 System.out.println("WARNING: cannot create dir " + dir.getPath());
@@ -82,11 +173,53 @@ public class ImageRW {
             if (!dirTask.isDirectory() && !dirTask.mkdir()) {
                 System.out.println("WARNING: cannot create dir " + dirTask.getPath());
             }
-            ImageRW.saveBImage(result, joinPath(path, taskName, image.name));
+            ImageRW.saveImage(image, joinPath(path, taskName, image.name));
         }
         System.out.println("INFO: Saving images completed");
     }
 
+    /**
+     * Streams an input image through the pipeline band by band, see {@link ImageStream}.
+     * Output paths take the format from their extension (png or mpimg).
+     */
+    public static void streamImage(String path, List<String> outputPaths, ColorPipeline pipeline, Color color) {
+        System.out.println("INFO: Streaming image started...");
+        File input = new File(joinPath(DIR_DATA_PATH, DIR_INPUT_PATH, path));
+        List<File> outputs = new ArrayList<>();
+        for (String outputPath : outputPaths) {
+            File output = new File(joinPath(DIR_DATA_PATH, DIR_OUTPUT_PATH, outputPath));
+            File dir = output.getParentFile();
+            if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+                System.out.println("WARNING: cannot create dir " + dir.getPath());
+            }
+            outputs.add(output);
+        }
+        try {
+            ImageStream.process(input, outputs, pipeline, color);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("WARNING: cannot stream image from " + input.getPath());
+        }
+        System.out.println("INFO: Streaming image completed");
+    }
+
+    /**
+     * Filters every image of an input dir into the output dir with pipelined decode, filter and encode stages,
+     * see {@link BatchProcessor}.
+     */
+    public static void processImages(String path, String saveDir, String taskName, Function<Image, Image> filter) {
+        System.out.println("INFO: Batch processing started...");
+        BatchProcessor batch = new BatchProcessor(filter);
+        batch.run(
+                new File(joinPath(DIR_DATA_PATH, DIR_INPUT_PATH, path)),
+                new File(joinPath(DIR_DATA_PATH, DIR_OUTPUT_PATH, saveDir, taskName))
+        );
+        System.out.println("INFO: Batch processing completed: " + batch.stats());
+        if (batch.errors() > 0) {
+            System.out.println("WARNING: " + taskName + " failed for " + batch.errors() + " files");
+        }
+    }
+
     static final FilenameFilter IMAGE_FILTER = (dir, name) -> {
         for (final String ext : IMAGE_FORMATS) {
             if (name.endsWith("." + ext)) {
@@ -104,7 +237,7 @@ public class ImageRW {
         }
         List<BufferedImage> images = new ArrayList<>();
         for (final File f : Objects.requireNonNull(dir.listFiles(IMAGE_FILTER))) {
-            images.add(loadBImage(f));
+            images.add(isRaw(f) ? ImageBridge.toBufferedImage(loadRawImage(f)) : loadBImage(f));
         }
         return images;
     }
@@ -117,44 +250,155 @@ public class ImageRW {
         }
         List<Image> images = new ArrayList<>();
         for (final File f : Objects.requireNonNull(dir.listFiles(IMAGE_FILTER))) {
-            BufferedImage bImage = loadBImage(f);
-            images.add(new Image(f.getName(), bImage));
+            if (isRaw(f)) {
+                images.add(loadRawImage(f));
+                continue;
+            }
+            try {
+                images.add(ImageCache.get(f, ImageRW::loadImage));
+            } catch (IOException e) {
+                System.out.println("WARNING: cannot load image from " + f.getPath());
+                images.add(ImageBridge.toImage(f.getName(), new BufferedImage(100, 100, IMAGE_TYPE)));
+            }
         }
         return images;
     }
 
-    private static void saveBImagesAsGif_(List<BufferedImage> images, String path) {
-        String fullPath = joinPath(DIR_DATA_PATH, DIR_OUTPUT_PATH, checkFormat(path, GIF_FORMAT));
-        try {
-            ImageOutputStream output = new FileImageOutputStream(new File(fullPath));
-            GifSequenceWriter writer = new GifSequenceWriter(
-                    output, images.getFirst().getType(), 10, true
-            );
-            for (BufferedImage image : images) {
-                writer.writeToSequence(image);
+    private static List<File> listImageFiles(File dir) {
+        File[] files = dir.listFiles(IMAGE_FILTER);
+        List<File> sorted = new ArrayList<>(files == null ? new ArrayList<File>() : Arrays.asList(files));
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private static <T> BatchResult<T> notDirectory(File dir) {
+        LinkedHashMap<String, Exception> errors = new LinkedHashMap<>();
+        errors.put(dir.getPath(), new IOException("cannot load images from " + dir.getPath()));
+        return new BatchResult<>(new ArrayList<T>(), errors);
+    }
+
+    /**
+     * Parallel {@link #loadImages(String)}: files are read on virtual threads, results are in the order of
+     * file names and errors are collected per file instead of being replaced by placeholders.
+     */
+    public static BatchResult<Image> loadImagesParallel(String path) {
+        File dir = new File(joinPath(DIR_DATA_PATH, DIR_INPUT_PATH, path));
+        if (!dir.isDirectory()) {
+            return notDirectory(dir);
+        }
+        return forEachFile(listImageFiles(dir), (i, file) -> ImageCache.get(file, ImageRW::loadImage));
+    }
+
+    public static BatchResult<BufferedImage> loadBImagesParallel(String path) {
+        File dir = new File(joinPath(DIR_DATA_PATH, DIR_INPUT_PATH, path));
+        if (!dir.isDirectory()) {
+            return notDirectory(dir);
+        }
+        return forEachFile(listImageFiles(dir), (i, file) -> {
+            if (isRaw(file)) {
+                return ImageBridge.toBufferedImage(MappedImage.open(file));
             }
-            writer.close();
-            output.close();
-        } catch (IOException e) {
-            System.out.println("WARNING: cannot save gif to " + fullPath);
+            BufferedImage bImage = ImageIO.read(file);
+            if (bImage == null) {
+                throw new IOException("no reader for " + file.getPath());
+            }
+            return bImage;
+        });
+    }
+
+    /**
+     * Parallel {@link #saveImages}: the output dir is created once, images are written on virtual threads.
+     * Values are the written files in the order of the images.
+     */
+    public static BatchResult<File> saveImagesParallel(List<Image> images, String path, String taskName) {
+        File dirTask = new File(joinPath(DIR_DATA_PATH, DIR_OUTPUT_PATH, path, taskName));
+        List<File> files = new ArrayList<>();
+        for (Image image : images) {
+            files.add(new File(dirTask, checkFormat(image.name, IMAGE_FORMAT_DEFAULT)));
+        }
+        if (!dirTask.isDirectory() && !dirTask.mkdirs()) {
+            return notDirectory(dirTask);
         }
+        return forEachFile(files, (i, file) -> {
+            pngEncoder.write(images.get(i), file);
+            return file;
+        });
+    }
+
+    private interface FileTask<T> {
+        T run(int i, File file) throws Exception;
+    }
+
+    /**
+     * Runs the task for every file on its own virtual thread, at most {@link #IO_CONCURRENCY} at once.
+     */
+    private static <T> BatchResult<T> forEachFile(List<File> files, FileTask<T> task) {
+        Semaphore permits = new Semaphore(IO_CONCURRENCY);
+        ExecutorService executorService = Executors.newVirtualThreadPerTaskExecutor();
+        List<Future<T>> futures = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            final int index = i;
+            futures.add(executorService.submit(() -> {
+                permits.acquire();
+                try {
+                    return task.run(index, files.get(index));
+                } finally {
+                    permits.release();
+                }
+            }));
+        }
+        executorService.shutdown();
+        long deadline = System.nanoTime() + ParallelRuntime.TIME_UNIT.toNanos(ParallelRuntime.TIMEOUT);
+        List<T> values = new ArrayList<>();
+        LinkedHashMap<String, Exception> errors = new LinkedHashMap<>();
+        for (int i = 0; i < futures.size(); i++) {
+            T value = null;
+            try {
+                value = futures.get(i).get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException e) {
+                errors.put(files.get(i).getPath(), e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                errors.put(files.get(i).getPath(), e);
+            } catch (Exception e) {
+                futures.get(i).cancel(true);
+                errors.put(files.get(i).getPath(), e);
+            }
+            values.add(value);
+        }
+        executorService.shutdownNow();
+        return new BatchResult<>(values, errors);
     }
 
     public static void saveBImagesAsGif(List<BufferedImage> bImages, String path) {
         List<Image> images = new ArrayList<>();
         for (BufferedImage bImage : bImages) {
-            images.add(new Image("", bImage));
+            images.add(ImageBridge.toImage("", bImage));
         }
         saveImagesAsGif(images, path);
     }
 
+    /**
+     * Frames are letterboxed to the largest frame size one by one and handed to the {@link GifEncoder}, which
+     * quantizes and compresses them in parallel and writes them in order.
+     */
     public static void saveImagesAsGif(List<Image> images, String path) {
-        List<Image> newImages = scaleMaxSize(images);
-        List<BufferedImage> bImages = new ArrayList<>();
-        for (Image image : newImages) {
-            bImages.add(image.getBufferedImage());
+        String fullPath = joinPath(DIR_DATA_PATH, DIR_OUTPUT_PATH, checkFormat(path, GIF_FORMAT));
+        int w = 0;
+        int h = 0;
+        for (Image image : images) {
+            w = Math.max(w, image.w);
+            h = Math.max(h, image.h);
+        }
+        try (OutputStream output = new BufferedOutputStream(new FileOutputStream(fullPath), 1 << 16);
+             GifEncoder encoder = new GifEncoder(output, w, h, 10, true)) {
+            for (Image image : images) {
+                encoder.writeFrame(image.w == w && image.h == h ? image : geometric.letterbox(image, w, h));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("WARNING: cannot save gif to " + fullPath);
         }
-        saveBImagesAsGif_(bImages, path);
     }
 
     public static void saveImagesAsGif(List<Image> images, String path, String taskName) {
@@ -171,20 +415,6 @@ public class ImageRW {
         System.out.println("INFO: Saving GIF completed");
     }
 
-    private static List<Image> scaleMaxSize(List<Image> images) {
-        int w = 0;
-        int h = 0;
-        for (Image image : images) {
-            w = Math.max(w, image.w);
-            h = Math.max(h, image.h);
-        }
-        List<Image> newImages = new ArrayList<>();
-        for (Image image : images) {
-            newImages.add(geometric.center(image, w, h));
-        }
-        return newImages;
-    }
-
     public static List<Image> imagesFromFuture(List<Future<Image>> results) {
         ArrayList<Image> images = new ArrayList<>();
         for (Future<Image> result : results) {
@@ -0,0 +1,415 @@
+package helpers;
+
+import filters.Color;
+import filters.ColorPipeline;
+import model.Image;
+import model.MappedImage;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Out-of-core processing of images larger than the heap: the input is read in horizontal bands through
+ * {@link ImageReadParam#setSourceRegion}, every band goes through a row-local {@link ColorPipeline} and its outputs
+ * are written out band by band, so only a few bands are in memory at any time.
+ * Outputs are .mpimg files (written in place through a mapping) or PNG files (the PNG writer pulls rows from a
+ * queue of at most {@link #QUEUE_CAPACITY} bands on its own thread).
+ * PNG inputs are decoded incrementally by {@link PngDecoder}. Other inputs go through the JDK readers, which decode
+ * from the start of the image for every region, so reading them is quadratic in the number of bands; the band
+ * height is therefore as large as the {@code mpiki.stream.band.bytes} budget allows (64 MB).
+ */
+public class ImageStream {
+    public static final long BAND_BYTES = Long.getLong("mpiki.stream.band.bytes", 64L << 20);
+    private static final int QUEUE_CAPACITY = 2;
+    private static final long OFFER_TIMEOUT_MS = 100;
+    private static final String RAW_FORMAT = "mpimg";
+    private static final String PNG_FORMAT = "png";
+
+    public static int bandHeight(int w) {
+        return (int) BaseMath.max(1, BaseMath.min(Integer.MAX_VALUE, BAND_BYTES / Integer.BYTES / BaseMath.max(w, 1)));
+    }
+
+    public static void process(File input, List<File> outputs, ColorPipeline pipeline, Color color) throws IOException {
+        process(input, outputs, pipeline, color, 0);
+    }
+
+    /**
+     * Streams the input through the pipeline, the i-th pipeline output is written to the i-th file.
+     *
+     * @param bandHeight rows per band, {@link #bandHeight(int)} if not positive
+     */
+    public static void process(
+            File input, List<File> outputs, ColorPipeline pipeline, Color color, int bandHeight
+    ) throws IOException {
+        List<BandSink> sinks = new ArrayList<>();
+        boolean isCompleted = false;
+        try {
+            if (input.getName().endsWith("." + PNG_FORMAT)) {
+                try (PngDecoder decoder = new PngDecoder(input)) {
+                    int rows = bandHeight > 0 ? bandHeight : bandHeight(decoder.w);
+                    Image band;
+                    while ((band = decoder.readBand(rows)) != null) {
+                        processBand(band, decoder.getY() - band.h, decoder.h, outputs, pipeline, color, sinks);
+                    }
+                    isCompleted = true;
+                    return;
+                } catch (PngDecoder.UnsupportedPngException e) {
+                    // ImageIO reads the rest, e.g. interlaced or 16-bit files
+                }
+            }
+            try (ImageInputStream stream = ImageIO.createImageInputStream(input)) {
+                Iterator<ImageReader> readers = stream == null ? null : ImageIO.getImageReaders(stream);
+                if (readers == null || !readers.hasNext()) {
+                    throw new IOException("no reader for " + input.getPath());
+                }
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(stream, true, true);
+                    int w = reader.getWidth(0);
+                    int h = reader.getHeight(0);
+                    int rows = bandHeight > 0 ? bandHeight : bandHeight(w);
+                    for (int y = 0; y < h; y += rows) {
+                        ImageReadParam param = reader.getDefaultReadParam();
+                        param.setSourceRegion(new Rectangle(0, y, w, BaseMath.min(rows, h - y)));
+                        Image band = ImageBridge.toImage(input.getName(), reader.read(0, param));
+                        processBand(band, y, h, outputs, pipeline, color, sinks);
+                    }
+                    isCompleted = true;
+                } finally {
+                    reader.dispose();
+                }
+            }
+        } finally {
+            IOException error = null;
+            for (BandSink sink : sinks) {
+                try {
+                    sink.close(isCompleted);
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            if (error != null && isCompleted) {
+                throw error;
+            }
+        }
+    }
+
+    private static void processBand(
+            Image band, int y, int h, List<File> outputs, ColorPipeline pipeline, Color color, List<BandSink> sinks
+    ) throws IOException {
+        List<Image> results = color.apply(band, pipeline);
+        if (results.size() != outputs.size()) {
+            throw new IllegalArgumentException(
+                    "pipeline has " + results.size() + " outputs, got " + outputs.size() + " files"
+            );
+        }
+        for (int i = 0; i < results.size(); i++) {
+            if (sinks.size() <= i) {
+                sinks.add(createSink(outputs.get(i), results.get(i), band.w, h));
+            }
+            // the sink releases the result once its rows are written
+            sinks.get(i).write(results.get(i), y);
+        }
+        band.release();
+    }
+
+    private static BandSink createSink(File file, Image firstBand, int w, int h) throws IOException {
+        String name = file.getName();
+        if (name.endsWith("." + RAW_FORMAT)) {
+            return new RawSink(file, firstBand, w, h);
+        }
+        if (name.endsWith("." + PNG_FORMAT)) {
+            return new PngSink(file, firstBand, w, h);
+        }
+        throw new IOException("cannot stream to " + file.getPath() + ", only ." + PNG_FORMAT + " and ." + RAW_FORMAT);
+    }
+
+    private interface BandSink {
+        /**
+         * Takes over the band, it is released once written.
+         */
+        void write(Image band, int y) throws IOException;
+
+        void close(boolean isCompleted) throws IOException;
+    }
+
+    private static class RawSink implements BandSink {
+        private final MappedImage image;
+        private final int[] row;
+
+        RawSink(File file, Image firstBand, int w, int h) throws IOException {
+            this.image = MappedImage.create(file, firstBand.name, w, h, firstBand.type);
+            this.row = new int[w];
+        }
+
+        @Override
+        public void write(Image band, int y) {
+            for (int i = 0; i < band.h; i++) {
+                band.getRow(i, 0, band.w, this.row, 0);
+                this.image.setRow(y + i, 0, band.w, this.row, 0);
+            }
+            band.release();
+        }
+
+        @Override
+        public void close(boolean isCompleted) {
+            this.image.force();
+        }
+    }
+
+    private static class PngSink implements BandSink {
+        private final BandImage image;
+        private final Thread thread;
+        private volatile IOException error;
+
+        PngSink(File file, Image firstBand, int w, int h) throws IOException {
+            this.image = new BandImage(ImageBridge.toBufferedImage(firstBand), w, h);
+            Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(PNG_FORMAT);
+            if (!writers.hasNext()) {
+                throw new IOException("no " + PNG_FORMAT + " writer");
+            }
+            ImageWriter writer = writers.next();
+            if (file.exists() && !file.delete()) {
+                throw new IOException("cannot overwrite " + file.getPath());
+            }
+            ImageOutputStream stream = ImageIO.createImageOutputStream(file);
+            writer.setOutput(stream);
+            this.thread = new Thread(() -> {
+                try {
+                    writer.write(this.image);
+                } catch (IOException e) {
+                    this.error = e;
+                } catch (RuntimeException e) {
+                    this.error = new IOException("cannot write " + file.getPath(), e);
+                } finally {
+                    this.image.releaseBands();
+                    writer.dispose();
+                    try {
+                        stream.close();
+                    } catch (IOException e) {
+                        this.error = e;
+                    }
+                }
+            }, "png-writer-" + file.getName());
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        /**
+         * Waits for room in the queue while the writer is alive, a failed writer's error is thrown here.
+         */
+        @Override
+        public void write(Image band, int y) throws IOException {
+            try {
+                while (!this.image.queue.offer(band, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    if (!this.thread.isAlive()) {
+                        band.release();
+                        throw this.error != null ? this.error : new IOException("png writer stopped before band " + y);
+                    }
+                }
+            } catch (InterruptedException e) {
+                band.release();
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while writing band " + y, e);
+            }
+        }
+
+        @Override
+        public void close(boolean isCompleted) throws IOException {
+            if (!isCompleted) {
+                this.thread.interrupt();
+            }
+            try {
+                this.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while finishing png", e);
+            } finally {
+                this.image.releaseBands();
+            }
+            if (this.error != null) {
+                throw this.error;
+            }
+        }
+    }
+
+    /**
+     * Image of the full size for ImageWriter that hands out rows of bands taken from a queue, in order.
+     * A band is wrapped (not copied) when it is taken and released when the writer moves past it.
+     */
+    private static class BandImage implements RenderedImage {
+        final BlockingQueue<Image> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final ColorModel colorModel;
+        private final SampleModel sampleModel;
+        private final int w;
+        private final int h;
+        private Image image;
+        private BufferedImage band;
+        private int bandY;
+
+        BandImage(BufferedImage firstBand, int w, int h) {
+            this.colorModel = firstBand.getColorModel();
+            this.sampleModel = firstBand.getSampleModel().createCompatibleSampleModel(w, h);
+            this.w = w;
+            this.h = h;
+        }
+
+        @Override
+        public Raster getData(Rectangle rect) {
+            try {
+                while (this.band == null || rect.y >= this.bandY + this.band.getHeight()) {
+                    if (this.band != null) {
+                        this.bandY += this.band.getHeight();
+                        this.image.release();
+                    }
+                    this.image = this.queue.take();
+                    this.band = ImageBridge.toBufferedImage(this.image);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for band at row " + rect.y, e);
+            }
+            if (rect.y < this.bandY || rect.y + rect.height > this.bandY + this.band.getHeight()) {
+                throw new IllegalStateException("rows " + rect.y + ".." + (rect.y + rect.height) + " are not in the current band");
+            }
+            return this.band.getRaster().createChild(
+                    rect.x, rect.y - this.bandY, rect.width, rect.height, rect.x, rect.y, null
+            );
+        }
+
+        /**
+         * Releases the current band and the queued ones, called when the writer is done or has failed.
+         */
+        synchronized void releaseBands() {
+            if (this.image != null) {
+                this.image.release();
+                this.image = null;
+                this.band = null;
+            }
+            Image image;
+            while ((image = this.queue.poll()) != null) {
+                image.release();
+            }
+        }
+
+        @Override
+        public Raster getData() {
+            throw new UnsupportedOperationException("streamed image is read by rows only");
+        }
+
+        @Override
+        public WritableRaster copyData(WritableRaster raster) {
+            throw new UnsupportedOperationException("streamed image is read by rows only");
+        }
+
+        @Override
+        public Raster getTile(int tileX, int tileY) {
+            throw new UnsupportedOperationException("streamed image is read by rows only");
+        }
+
+        @Override
+        public Vector<RenderedImage> getSources() {
+            return null;
+        }
+
+        @Override
+        public Object getProperty(String name) {
+            return java.awt.Image.UndefinedProperty;
+        }
+
+        @Override
+        public String[] getPropertyNames() {
+            return null;
+        }
+
+        @Override
+        public ColorModel getColorModel() {
+            return this.colorModel;
+        }
+
+        @Override
+        public SampleModel getSampleModel() {
+            return this.sampleModel;
+        }
+
+        @Override
+        public int getWidth() {
+            return this.w;
+        }
+
+        @Override
+        public int getHeight() {
+            return this.h;
+        }
+
+        @Override
+        public int getMinX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinY() {
+            return 0;
+        }
+
+        @Override
+        public int getNumXTiles() {
+            return 1;
+        }
+
+        @Override
+        public int getNumYTiles() {
+            return 1;
+        }
+
+        @Override
+        public int getMinTileX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinTileY() {
+            return 0;
+        }
+
+        @Override
+        public int getTileWidth() {
+            return this.w;
+        }
+
+        @Override
+        public int getTileHeight() {
+            return this.h;
+        }
+
+        @Override
+        public int getTileGridXOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getTileGridYOffset() {
+            return 0;
+        }
+    }
+}
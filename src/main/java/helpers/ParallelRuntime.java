@@ -0,0 +1,170 @@
+package helpers;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide work-stealing runtime shared by all ParCPU filters.
+ * Size is taken from the {@code mpiki.parallelism} system property (defaults to the number of processors),
+ * the sequential cutoff from {@code mpiki.cutoff} (minimal number of pixels processed by one task).
+ */
+public class ParallelRuntime {
+    public static final String PARALLELISM_PROPERTY = "mpiki.parallelism";
+    public static final String CUTOFF_PROPERTY = "mpiki.cutoff";
+    public static final long TIMEOUT = 600;
+    public static final TimeUnit TIME_UNIT = TimeUnit.SECONDS;
+    private static final int CUTOFF_DEFAULT = 1 << 14;
+    private static final int TASKS_PER_WORKER = 8;
+
+    private static volatile ForkJoinPool pool = new ForkJoinPool(
+            Integer.getInteger(PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors())
+    );
+    private static volatile int cutoff = Integer.getInteger(CUTOFF_PROPERTY, CUTOFF_DEFAULT);
+
+    private static final AtomicLong invocations = new AtomicLong();
+    private static final AtomicLong tasks = new AtomicLong();
+    private static final AtomicLong wallNanos = new AtomicLong();
+    private static final AtomicLong busyNanos = new AtomicLong();
+    private static volatile long stealsBase = 0;
+
+    public interface RangeBody {
+        void run(int start, int end);
+    }
+
+    public static ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public static int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    public static synchronized void setParallelism(int parallelism) {
+        if (parallelism == pool.getParallelism()) {
+            return;
+        }
+        ForkJoinPool oldPool = pool;
+        pool = new ForkJoinPool(BaseMath.max(parallelism, 1));
+        stealsBase = 0;
+        oldPool.shutdown();
+    }
+
+    public static int getCutoff() {
+        return cutoff;
+    }
+
+    public static void setCutoff(int newCutoff) {
+        cutoff = BaseMath.max(newCutoff, 1);
+    }
+
+    /**
+     * Minimal number of rows per task for row-based loops over images of the given width.
+     */
+    public static int rowGrain(int w) {
+        return BaseMath.max(cutoff / BaseMath.max(w, 1), 1);
+    }
+
+    public static boolean parallelFor(String taskName, int from, int to, RangeBody body) {
+        return parallelFor(taskName, from, to, cutoff, body);
+    }
+
+    /**
+     * Splits [from, to) between the workers of the shared pool, every task gets at least {@code grain} items.
+     * Returns false if the loop failed or reached the timeout.
+     */
+    public static boolean parallelFor(String taskName, int from, int to, int grain, RangeBody body) {
+        if (from >= to) {
+            return true;
+        }
+        ForkJoinPool currPool = pool;
+        int threshold = BaseMath.max(grain, (to - from) / (currPool.getParallelism() * TASKS_PER_WORKER));
+        long startTime = System.nanoTime();
+        invocations.incrementAndGet();
+        boolean isCompleted = false;
+        RangeTask task = new RangeTask(from, to, BaseMath.max(threshold, 1), body);
+        try {
+            if (to - from <= threshold) {
+                task.compute();
+            } else if (isWorkerOf(currPool)) {
+                task.invoke();
+            } else {
+                currPool.submit(task).get(TIMEOUT, TIME_UNIT);
+            }
+            isCompleted = true;
+        } catch (TimeoutException e) {
+            task.cancel(true);
+            System.out.println("WARNING: " + taskName + " reached timeout");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("WARNING: " + taskName + " gone wrong");
+        }
+        wallNanos.addAndGet(System.nanoTime() - startTime);
+        return isCompleted;
+    }
+
+    private static boolean isWorkerOf(ForkJoinPool currPool) {
+        Thread thread = Thread.currentThread();
+        return thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == currPool;
+    }
+
+    public static void resetStats() {
+        invocations.set(0);
+        tasks.set(0);
+        wallNanos.set(0);
+        busyNanos.set(0);
+        stealsBase = pool.getStealCount();
+    }
+
+    /**
+     * Scheduling statistics since the last {@link #resetStats()}: overhead is the share of worker time
+     * spent outside of the loop bodies (splitting, queueing, stealing and idling at joins).
+     */
+    public static String stats() {
+        long wall = wallNanos.get();
+        long busy = busyNanos.get();
+        int parallelism = getParallelism();
+        double overhead = wall == 0 ? 0 : BaseMath.max(0, 1 - (double) busy / parallelism / wall) * 100;
+        return "parallelism=" + parallelism
+                + ", loops=" + invocations.get()
+                + ", tasks=" + tasks.get()
+                + ", steals=" + (pool.getStealCount() - stealsBase)
+                + ", wall=" + TimeUnit.NANOSECONDS.toMillis(wall) + " ms"
+                + ", busy=" + TimeUnit.NANOSECONDS.toMillis(busy) + " ms"
+                + ", overhead=" + String.format("%05.2f", overhead) + "%";
+    }
+
+    private static class RangeTask extends RecursiveAction {
+        private final int start;
+        private final int end;
+        private final int threshold;
+        private final RangeBody body;
+
+        RangeTask(int start, int end, int threshold, RangeBody body) {
+            this.start = start;
+            this.end = end;
+            this.threshold = threshold;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= threshold) {
+                long startTime = System.nanoTime();
+                body.run(start, end);
+                busyNanos.addAndGet(System.nanoTime() - startTime);
+                tasks.incrementAndGet();
+                return;
+            }
+            int middle = (start + end) >>> 1;
+            ForkJoinTask.invokeAll(
+                    new RangeTask(start, middle, threshold, body),
+                    new RangeTask(middle, end, threshold, body)
+            );
+        }
+    }
+}
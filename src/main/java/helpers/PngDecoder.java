@@ -0,0 +1,349 @@
+package helpers;
+
+import model.Image;
+import model.MappedImage;
+import model.TiledImage;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Streaming PNG reader: IDAT data is inflated as it is read and every scanline is unfiltered and converted to
+ * ARGB straight into the destination, so no BufferedImage or second copy of the pixels is made.
+ * Supports non-interlaced 8-bit gray, gray with alpha, RGB, RGBA and palette images (with tRNS), other files fail
+ * with {@link UnsupportedPngException} so callers can fall back to ImageIO.
+ * Rows are read top to bottom with {@link #readRows}, {@link #readBand} gives them as images of a few rows.
+ */
+public class PngDecoder implements AutoCloseable {
+    private static final long SIGNATURE = 0x89504E470D0A1A0AL;
+    private static final int COLOR_GRAY = 0;
+    private static final int COLOR_RGB = 2;
+    private static final int COLOR_PALETTE = 3;
+    private static final int COLOR_GRAY_ALPHA = 4;
+    private static final int COLOR_RGBA = 6;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    final public String name;
+    final public int w;
+    final public int h;
+    /**
+     * Type of the decoded image: TYPE_INT_ARGB with alpha, TYPE_BYTE_GRAY for gray, TYPE_INT_RGB otherwise.
+     */
+    final public int type;
+    private final DataInputStream input;
+    private final InputStream pixels;
+    private final Inflater inflater = new Inflater();
+    private final int colorType;
+    private final int bytesPerPixel;
+    private int[] palette;
+    private byte[] prev;
+    private byte[] curr;
+    private int y = 0;
+
+    public static class UnsupportedPngException extends IOException {
+        public UnsupportedPngException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Reads the header chunks up to the first IDAT.
+     */
+    public PngDecoder(File file) throws IOException {
+        this.name = file.getName();
+        this.input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        try {
+            if (this.input.readLong() != SIGNATURE) {
+                throw new UnsupportedPngException("not a png file: " + file.getPath());
+            }
+            int length = this.input.readInt();
+            if (!"IHDR".equals(readType()) || length != 13) {
+                throw new IOException("png without IHDR: " + file.getPath());
+            }
+            this.w = this.input.readInt();
+            this.h = this.input.readInt();
+            int bitDepth = this.input.readUnsignedByte();
+            this.colorType = this.input.readUnsignedByte();
+            this.input.skipBytes(2);
+            int interlace = this.input.readUnsignedByte();
+            this.input.skipBytes(4);
+            if (bitDepth != 8 || interlace != 0 || this.colorType == 1 || this.colorType == 5 || this.colorType > 6) {
+                throw new UnsupportedPngException("unsupported png (bit depth " + bitDepth + ", color type "
+                        + this.colorType + ", interlace " + interlace + "): " + file.getPath());
+            }
+            this.bytesPerPixel = this.colorType == COLOR_RGB ? 3 : this.colorType == COLOR_RGBA ? 4
+                    : this.colorType == COLOR_GRAY_ALPHA ? 2 : 1;
+            boolean hasAlpha = this.colorType == COLOR_RGBA || this.colorType == COLOR_GRAY_ALPHA;
+            int idatLength = -1;
+            while (idatLength < 0) {
+                length = this.input.readInt();
+                String chunkType = readType();
+                if ("IDAT".equals(chunkType)) {
+                    idatLength = length;
+                } else if ("PLTE".equals(chunkType)) {
+                    this.palette = new int[256];
+                    Arrays.fill(this.palette, 0xFF000000);
+                    for (int i = 0; i < length / 3; i++) {
+                        this.palette[i] = 0xFF000000 | this.input.readUnsignedByte() << 16
+                                | this.input.readUnsignedByte() << 8 | this.input.readUnsignedByte();
+                    }
+                    this.input.skipBytes(length % 3 + 4);
+                } else if ("tRNS".equals(chunkType) && this.colorType == COLOR_PALETTE && this.palette != null) {
+                    for (int i = 0; i < length; i++) {
+                        this.palette[i] = (this.palette[i] & 0xFFFFFF) | this.input.readUnsignedByte() << 24;
+                    }
+                    this.input.skipBytes(4);
+                    hasAlpha = true;
+                } else if ("IEND".equals(chunkType)) {
+                    throw new IOException("png without IDAT: " + file.getPath());
+                } else {
+                    skipFully(length + 4);
+                }
+            }
+            if (this.colorType == COLOR_PALETTE && this.palette == null) {
+                throw new IOException("palette png without PLTE: " + file.getPath());
+            }
+            this.type = hasAlpha ? BufferedImage.TYPE_INT_ARGB
+                    : this.colorType == COLOR_GRAY ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB;
+            this.pixels = new InflaterInputStream(new IdatStream(idatLength), this.inflater, BUFFER_SIZE);
+            this.prev = new byte[this.w * this.bytesPerPixel];
+            this.curr = new byte[this.w * this.bytesPerPixel + 1];
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Decodes the whole file into a heap image (tiled for more than 2^31 pixels).
+     */
+    public static Image read(File file) throws IOException {
+        try (PngDecoder decoder = new PngDecoder(file)) {
+            long size = (long) decoder.w * decoder.h;
+            Image image = size > Integer.MAX_VALUE - 8
+                    ? new TiledImage(decoder.name, decoder.w, decoder.h, decoder.type)
+                    : new Image(decoder.name, decoder.w, decoder.h, decoder.type);
+            decoder.readInto(image);
+            return image;
+        }
+    }
+
+    /**
+     * Decodes the file into a new .mpimg file, the pixels never live on the heap.
+     */
+    public static MappedImage readMapped(File file, File rawFile) throws IOException {
+        try (PngDecoder decoder = new PngDecoder(file)) {
+            MappedImage image = MappedImage.create(rawFile, decoder.name, decoder.w, decoder.h, decoder.type);
+            decoder.readInto(image);
+            image.force();
+            return image;
+        }
+    }
+
+    /**
+     * Decodes the remaining rows into the same rows of the image, heap grids are filled directly.
+     */
+    public void readInto(Image image) throws IOException {
+        if (image.grid != null) {
+            readRows(image.grid, this.y * this.w, this.h - this.y);
+            return;
+        }
+        int[] row = new int[this.w];
+        while (this.y < this.h) {
+            int rowY = this.y;
+            readRows(row, 0, 1);
+            image.setRow(rowY, 0, this.w, row, 0);
+        }
+    }
+
+    public int getY() {
+        return this.y;
+    }
+
+    /**
+     * Next rows (at most {@code rows}) as a heap image, null after the last row.
+     */
+    public Image readBand(int rows) throws IOException {
+        int bandH = BaseMath.min(rows, this.h - this.y);
+        if (bandH <= 0) {
+            return null;
+        }
+        Image band = new Image(this.name, this.w, bandH, this.type);
+        readRows(band.grid, 0, bandH);
+        return band;
+    }
+
+    /**
+     * Decodes the next rows as packed ARGB into dst, w pixels per row from dstOffset.
+     * Returns the number of rows decoded, less than requested at the end of the image.
+     */
+    public int readRows(int[] dst, int dstOffset, int rows) throws IOException {
+        rows = BaseMath.min(rows, this.h - this.y);
+        for (int i = 0; i < rows; i++) {
+            readFully(this.curr);
+            unfilter(this.curr, this.prev);
+            convert(this.curr, dst, dstOffset + i * this.w);
+            System.arraycopy(this.curr, 1, this.prev, 0, this.prev.length);
+            this.y++;
+        }
+        return rows;
+    }
+
+    private void unfilter(byte[] line, byte[] prev) throws IOException {
+        int filter = line[0];
+        int bpp = this.bytesPerPixel;
+        int length = prev.length;
+        if (filter == PngEncoder.FILTER_NONE) {
+            return;
+        }
+        if (filter == PngEncoder.FILTER_SUB) {
+            for (int i = bpp; i < length; i++) {
+                line[i + 1] += line[i + 1 - bpp];
+            }
+        } else if (filter == PngEncoder.FILTER_UP) {
+            for (int i = 0; i < length; i++) {
+                line[i + 1] += prev[i];
+            }
+        } else if (filter == PngEncoder.FILTER_AVERAGE) {
+            for (int i = 0; i < length; i++) {
+                int left = i >= bpp ? line[i + 1 - bpp] & 0xFF : 0;
+                line[i + 1] += (byte) ((left + (prev[i] & 0xFF)) >> 1);
+            }
+        } else if (filter == PngEncoder.FILTER_PAETH) {
+            for (int i = 0; i < length; i++) {
+                int a = i >= bpp ? line[i + 1 - bpp] & 0xFF : 0;
+                int b = prev[i] & 0xFF;
+                int c = i >= bpp ? prev[i - bpp] & 0xFF : 0;
+                int p = a + b - c;
+                int pa = p > a ? p - a : a - p;
+                int pb = p > b ? p - b : b - p;
+                int pc = p > c ? p - c : c - p;
+                line[i + 1] += (byte) (pa <= pb && pa <= pc ? a : pb <= pc ? b : c);
+            }
+        } else {
+            throw new IOException("bad png filter " + filter + " in row " + this.y + " of " + this.name);
+        }
+    }
+
+    private void convert(byte[] line, int[] dst, int offset) {
+        int w = this.w;
+        if (this.colorType == COLOR_RGB) {
+            for (int x = 0, i = 1; x < w; x++, i += 3) {
+                dst[offset + x] = 0xFF000000 | (line[i] & 0xFF) << 16 | (line[i + 1] & 0xFF) << 8 | (line[i + 2] & 0xFF);
+            }
+        } else if (this.colorType == COLOR_RGBA) {
+            for (int x = 0, i = 1; x < w; x++, i += 4) {
+                dst[offset + x] = (line[i + 3] & 0xFF) << 24
+                        | (line[i] & 0xFF) << 16 | (line[i + 1] & 0xFF) << 8 | (line[i + 2] & 0xFF);
+            }
+        } else if (this.colorType == COLOR_GRAY) {
+            for (int x = 0; x < w; x++) {
+                int g = line[x + 1] & 0xFF;
+                dst[offset + x] = 0xFF000000 | g << 16 | g << 8 | g;
+            }
+        } else if (this.colorType == COLOR_GRAY_ALPHA) {
+            for (int x = 0, i = 1; x < w; x++, i += 2) {
+                int g = line[i] & 0xFF;
+                dst[offset + x] = (line[i + 1] & 0xFF) << 24 | g << 16 | g << 8 | g;
+            }
+        } else {
+            int[] palette = this.palette;
+            for (int x = 0; x < w; x++) {
+                dst[offset + x] = palette[line[x + 1] & 0xFF];
+            }
+        }
+    }
+
+    private void readFully(byte[] buffer) throws IOException {
+        int read = 0;
+        while (read < buffer.length) {
+            int count = this.pixels.read(buffer, read, buffer.length - read);
+            if (count < 0) {
+                throw new EOFException("png data ends at row " + this.y + " of " + this.name);
+            }
+            read += count;
+        }
+    }
+
+    private String readType() throws IOException {
+        byte[] type = new byte[4];
+        this.input.readFully(type);
+        return new String(type, StandardCharsets.US_ASCII);
+    }
+
+    private void skipFully(long count) throws IOException {
+        while (count > 0) {
+            long skipped = this.input.skip(count);
+            if (skipped <= 0) {
+                throw new EOFException("png ends inside a chunk: " + this.name);
+            }
+            count -= skipped;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.inflater.end();
+        this.input.close();
+    }
+
+    /**
+     * Payload of consecutive IDAT chunks as one stream, CRCs and other chunks skipped.
+     */
+    private class IdatStream extends InputStream {
+        private int remaining;
+
+        IdatStream(int length) {
+            this.remaining = length;
+        }
+
+        private boolean nextChunk() throws IOException {
+            while (this.remaining == 0) {
+                skipFully(4);
+                int length = input.readInt();
+                if (!"IDAT".equals(readType())) {
+                    return false;
+                }
+                this.remaining = length;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (this.remaining < 0 || !nextChunk()) {
+                this.remaining = -1;
+                return -1;
+            }
+            this.remaining--;
+            return input.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (this.remaining < 0 || !nextChunk()) {
+                this.remaining = -1;
+                return -1;
+            }
+            int count = input.read(buffer, offset, BaseMath.min(length, this.remaining));
+            if (count < 0) {
+                throw new EOFException("png ends inside IDAT: " + name);
+            }
+            this.remaining -= count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package helpers;
+
+import model.GrayImage;
+import model.Image;
+import model.MaskImage;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG writer that compresses in parallel like pigz: scanlines are split into chunks of about
+ * {@link #CHUNK_BYTES}, every chunk is filtered and deflated by its own task on the {@link ParallelRuntime} pool
+ * with the last 32 KB of the preceding filtered data as dictionary, and the raw deflate blocks (ended by a sync
+ * flush, the last one by finish) are concatenated into one zlib stream whose Adler-32 is combined from the chunks.
+ * Chunks are written in order as separate IDAT chunks, at most two per worker are in memory.
+ * ARGB images are written as RGBA or RGB (types without alpha), {@link GrayImage} as 8-bit gray and
+ * {@link MaskImage} as 1-bit gray.
+ */
+public class PngEncoder {
+    public static final int FILTER_NONE = 0;
+    public static final int FILTER_SUB = 1;
+    public static final int FILTER_UP = 2;
+    public static final int FILTER_AVERAGE = 3;
+    public static final int FILTER_PAETH = 4;
+    public static final int FILTER_ADAPTIVE = 5;
+    public static final int LEVEL_DEFAULT = 6;
+    public static final int CHUNK_BYTES = 1 << 17;
+    private static final int DICTIONARY_BYTES = 1 << 15;
+    private static final int TASKS_PER_WORKER = 2;
+    private static final int ADLER_BASE = 65521;
+    private static final byte[] SIGNATURE = new byte[]{(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    private static final int COLOR_GRAY = 0;
+    private static final int COLOR_RGB = 2;
+    private static final int COLOR_RGBA = 6;
+
+    final public int level;
+    final public int filter;
+
+    public PngEncoder() {
+        this(LEVEL_DEFAULT, FILTER_ADAPTIVE);
+    }
+
+    /**
+     * @param level  deflate level 0..9
+     * @param filter one of FILTER_*, FILTER_ADAPTIVE picks per row the filter with the smallest sum of residuals
+     */
+    public PngEncoder(int level, int filter) {
+        if (level < 0 || level > 9 || filter < FILTER_NONE || filter > FILTER_ADAPTIVE) {
+            throw new IllegalArgumentException("level=" + level + ", filter=" + filter);
+        }
+        this.level = level;
+        this.filter = filter;
+    }
+
+    public void write(Image image, File file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            write(image, out);
+        }
+    }
+
+    public void write(Image image, OutputStream out) throws IOException {
+        Format format = new Format(image);
+        int lineBytes = format.rowBytes + 1;
+        int rowsPerChunk = BaseMath.max(1, CHUNK_BYTES / lineBytes);
+        int chunks = (image.h + rowsPerChunk - 1) / rowsPerChunk;
+        out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, image.w);
+        putInt(header, 4, image.h);
+        header[8] = (byte) format.bitDepth;
+        header[9] = (byte) format.colorType;
+        writeChunk(out, "IHDR", header);
+        int window = ParallelRuntime.getParallelism() * TASKS_PER_WORKER;
+        ArrayDeque<ForkJoinTask<Block>> pending = new ArrayDeque<>();
+        long adler = 1;
+        try {
+            for (int i = 0; i < chunks; i++) {
+                int start = i * rowsPerChunk;
+                int end = BaseMath.min(start + rowsPerChunk, image.h);
+                boolean isLast = i == chunks - 1;
+                if (chunks == 1) {
+                    adler = writeBlock(out, compress(image, format, start, end, true), adler, true);
+                    break;
+                }
+                pending.add(ParallelRuntime.getPool().submit(() -> compress(image, format, start, end, isLast)));
+                if (pending.size() >= window) {
+                    adler = writeBlock(out, pending.poll().get(), adler, false);
+                }
+            }
+            while (!pending.isEmpty()) {
+                ForkJoinTask<Block> task = pending.poll();
+                adler = writeBlock(out, task.get(), adler, pending.isEmpty());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while encoding " + image.name, e);
+        } catch (ExecutionException e) {
+            throw new IOException("cannot encode " + image.name, e.getCause());
+        } finally {
+            for (ForkJoinTask<Block> task : pending) {
+                task.cancel(true);
+            }
+        }
+        writeChunk(out, "IEND", new byte[0]);
+        out.flush();
+    }
+
+    /**
+     * Writes one IDAT chunk, the first one starts with the zlib header, the last one ends with the checksum.
+     */
+    private long writeBlock(OutputStream out, Block block, long adler, boolean isLast) throws IOException {
+        adler = adler32Combine(adler, block.adler, block.rawLength);
+        byte[] zlibHeader = new byte[0];
+        if (block.isFirst) {
+            int flags = (this.level < 2 ? 0 : this.level < 6 ? 1 : this.level == 6 ? 2 : 3) << 6;
+            flags += 31 - ((0x78 << 8) + flags) % 31;
+            zlibHeader = new byte[]{0x78, (byte) flags};
+        }
+        byte[] checksum = new byte[0];
+        if (isLast) {
+            checksum = new byte[4];
+            putInt(checksum, 0, (int) adler);
+        }
+        writeChunk(out, "IDAT", zlibHeader, block.data, checksum);
+        return adler;
+    }
+
+    private Block compress(Image image, Format format, int start, int end, boolean isLast) {
+        int lineBytes = format.rowBytes + 1;
+        int dictionaryRows = (DICTIONARY_BYTES + lineBytes - 1) / lineBytes;
+        int from = BaseMath.max(0, start - dictionaryRows);
+        byte[] filtered = new byte[(end - from) * lineBytes];
+        byte[] prev = new byte[format.rowBytes];
+        byte[] curr = new byte[format.rowBytes];
+        byte[][] scratch = this.filter == FILTER_ADAPTIVE ? new byte[FILTER_ADAPTIVE][format.rowBytes] : null;
+        int[] row = new int[image.w];
+        if (from > 0) {
+            format.pack(image, from - 1, row, prev);
+        }
+        for (int y = from; y < end; y++) {
+            format.pack(image, y, row, curr);
+            filterRow(prev, curr, format.bytesPerPixel, filtered, (y - from) * lineBytes, scratch);
+            byte[] tmp = prev;
+            prev = curr;
+            curr = tmp;
+        }
+        int offset = (start - from) * lineBytes;
+        Deflater deflater = new Deflater(this.level, true);
+        try {
+            if (offset > 0) {
+                int dictionary = BaseMath.min(DICTIONARY_BYTES, offset);
+                deflater.setDictionary(filtered, offset - dictionary, dictionary);
+            }
+            deflater.setInput(filtered, offset, filtered.length - offset);
+            if (isLast) {
+                deflater.finish();
+            }
+            ByteArrayOutputStream sink = new ByteArrayOutputStream(BaseMath.max(1 << 10, (filtered.length - offset) / 2));
+            byte[] buffer = new byte[1 << 16];
+            while (true) {
+                int count = isLast
+                        ? deflater.deflate(buffer)
+                        : deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                sink.write(buffer, 0, count);
+                if (isLast ? deflater.finished() : count < buffer.length) {
+                    break;
+                }
+            }
+            Adler32 adler = new Adler32();
+            adler.update(filtered, offset, filtered.length - offset);
+            return new Block(sink.toByteArray(), (int) adler.getValue(), filtered.length - offset, start == 0);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void filterRow(byte[] prev, byte[] curr, int bpp, byte[] out, int offset, byte[][] scratch) {
+        if (scratch == null) {
+            out[offset] = (byte) this.filter;
+            applyFilter(this.filter, prev, curr, bpp, out, offset + 1);
+            return;
+        }
+        int best = FILTER_NONE;
+        long bestSum = Long.MAX_VALUE;
+        for (int type = FILTER_NONE; type < FILTER_ADAPTIVE; type++) {
+            applyFilter(type, prev, curr, bpp, scratch[type], 0);
+            long sum = 0;
+            for (byte value : scratch[type]) {
+                sum += BaseMath.abs((long) value);
+            }
+            if (sum < bestSum) {
+                bestSum = sum;
+                best = type;
+            }
+        }
+        out[offset] = (byte) best;
+        System.arraycopy(scratch[best], 0, out, offset + 1, curr.length);
+    }
+
+    private static void applyFilter(int type, byte[] prev, byte[] curr, int bpp, byte[] out, int offset) {
+        int length = curr.length;
+        if (type == FILTER_NONE) {
+            System.arraycopy(curr, 0, out, offset, length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            int c = curr[i] & 0xFF;
+            int left = i >= bpp ? curr[i - bpp] & 0xFF : 0;
+            int up = prev[i] & 0xFF;
+            int value;
+            if (type == FILTER_SUB) {
+                value = c - left;
+            } else if (type == FILTER_UP) {
+                value = c - up;
+            } else if (type == FILTER_AVERAGE) {
+                value = c - ((left + up) >> 1);
+            } else {
+                value = c - paeth(left, up, i >= bpp ? prev[i - bpp] & 0xFF : 0);
+            }
+            out[offset + i] = (byte) value;
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = p > a ? p - a : a - p;
+        int pb = p > b ? p - b : b - p;
+        int pc = p > c ? p - c : c - p;
+        return pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+    }
+
+    /**
+     * Adler-32 of the concatenation of two sequences from their checksums, as zlib's adler32_combine.
+     */
+    static long adler32Combine(long adler1, long adler2, long length2) {
+        long rem = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (rem * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += ((adler1 >> 16) & 0xFFFF) + ((adler2 >> 16) & 0xFFFF) + ADLER_BASE - rem;
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum2 >= ((long) ADLER_BASE << 1)) {
+            sum2 -= ((long) ADLER_BASE << 1);
+        }
+        if (sum2 >= ADLER_BASE) {
+            sum2 -= ADLER_BASE;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[]... parts) throws IOException {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        byte[] buffer = new byte[4];
+        putInt(buffer, 0, length);
+        out.write(buffer);
+        out.write(typeBytes);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        for (byte[] part : parts) {
+            out.write(part);
+            crc.update(part);
+        }
+        putInt(buffer, 0, (int) crc.getValue());
+        out.write(buffer);
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    private static class Block {
+        final byte[] data;
+        final int adler;
+        final int rawLength;
+        final boolean isFirst;
+
+        Block(byte[] data, int adler, int rawLength, boolean isFirst) {
+            this.data = data;
+            this.adler = adler;
+            this.rawLength = rawLength;
+            this.isFirst = isFirst;
+        }
+    }
+
+    /**
+     * PNG pixel layout of an image and packing of its rows into scanline bytes.
+     */
+    private static class Format {
+        final int colorType;
+        final int bitDepth;
+        final int bytesPerPixel;
+        final int rowBytes;
+
+        Format(Image image) {
+            if (image.type == BufferedImage.TYPE_BYTE_BINARY) {
+                this.colorType = COLOR_GRAY;
+                this.bitDepth = 1;
+                this.bytesPerPixel = 1;
+                this.rowBytes = MaskImage.stride(image.w);
+            } else if (image.type == BufferedImage.TYPE_BYTE_GRAY) {
+                this.colorType = COLOR_GRAY;
+                this.bitDepth = 8;
+                this.bytesPerPixel = 1;
+                this.rowBytes = image.w;
+            } else {
+                boolean hasAlpha = image.type == BufferedImage.TYPE_INT_ARGB
+                        || image.type == BufferedImage.TYPE_INT_ARGB_PRE
+                        || image.type == BufferedImage.TYPE_4BYTE_ABGR
+                        || image.type == BufferedImage.TYPE_4BYTE_ABGR_PRE
+                        || image.type == BufferedImage.TYPE_CUSTOM;
+                this.colorType = hasAlpha ? COLOR_RGBA : COLOR_RGB;
+                this.bitDepth = 8;
+                this.bytesPerPixel = hasAlpha ? 4 : 3;
+                this.rowBytes = image.w * this.bytesPerPixel;
+            }
+        }
+
+        void pack(Image image, int y, int[] row, byte[] out) {
+            if (image instanceof GrayImage) {
+                GrayImage grayImage = (GrayImage) image;
+                System.arraycopy(grayImage.band(y), grayImage.offset(y), out, 0, this.rowBytes);
+                return;
+            }
+            if (image instanceof MaskImage) {
+                System.arraycopy(((MaskImage) image).bits, y * ((MaskImage) image).stride, out, 0, this.rowBytes);
+                return;
+            }
+            image.getRow(y, 0, image.w, row, 0);
+            if (this.bitDepth == 1) {
+                Arrays.fill(out, (byte) 0);
+                for (int x = 0; x < image.w; x++) {
+                    if ((row[x] & 0xFF) != 0) {
+                        out[x >> 3] |= (byte) (0x80 >>> (x & 7));
+                    }
+                }
+            } else if (this.colorType == COLOR_GRAY) {
+                for (int x = 0; x < image.w; x++) {
+                    out[x] = (byte) row[x];
+                }
+            } else {
+                int i = 0;
+                for (int x = 0; x < image.w; x++) {
+                    int color = row[x];
+                    out[i++] = (byte) (color >> 16);
+                    out[i++] = (byte) (color >> 8);
+                    out[i++] = (byte) color;
+                    if (this.bytesPerPixel == 4) {
+                        out[i++] = (byte) (color >>> 24);
+                    }
+                }
+            }
+        }
+    }
+}
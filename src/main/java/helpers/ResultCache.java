@@ -0,0 +1,222 @@
+package helpers;
+
+import model.Image;
+import model.MappedImage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Persistent cache of filter results addressed by content: the key is a 64-bit hash of the input pixels (with size
+ * and type) plus the operation name and its parameters, results are stored as .mpimg files in
+ * {@code mpiki.results.dir} and mapped back read-only on a hit, so a repeated request computes nothing.
+ * <pre>
+ * Image result = ResultCache.get(image, "rotation", () -&gt; geometric.rotation(image, angle), angle);
+ * </pre>
+ * Files are written under a unique temporary name and renamed atomically, so concurrent writers (threads or
+ * processes) never expose a partial result, and the last rename of identical content wins. The directory is kept
+ * under {@code mpiki.results.bytes} (1 GB by default) by deleting the least recently used files; hits refresh the
+ * modification time used for that.
+ */
+public class ResultCache {
+    public static final String RESULTS_DIR_PROPERTY = "mpiki.results.dir";
+    public static final String RESULTS_BYTES_PROPERTY = "mpiki.results.bytes";
+    private static final String RAW_SUFFIX = ".mpimg";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+    private static final long PRIME = 0xC2B2AE3D27D4EB4FL;
+
+    private static volatile File dir = new File(System.getProperty(
+            RESULTS_DIR_PROPERTY, ImageRW.joinPath(System.getProperty("java.io.tmpdir"), "mpiki-results")
+    ));
+    private static volatile long maxBytes = Long.getLong(RESULTS_BYTES_PROPERTY, 1L << 30);
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+    private static final AtomicLong tmpCounter = new AtomicLong();
+    private static final ConcurrentHashMap<String, CountDownLatch> inFlight = new ConcurrentHashMap<>();
+
+    public static void setDir(File newDir) {
+        dir = newDir;
+    }
+
+    public static void setMaxBytes(long bytes) {
+        maxBytes = bytes;
+        evict();
+    }
+
+    /**
+     * Result of the filter for this image, operation and parameters: mapped from disk if it was computed before,
+     * otherwise computed, stored and returned as is. Results read from disk are read-only.
+     */
+    public static Image get(Image image, String operation, Supplier<Image> filter, Object... params) {
+        File file = new File(dir, key(image, operation, params) + RAW_SUFFIX);
+        Image cached = open(file);
+        if (cached != null) {
+            return cached;
+        }
+        // threads of this process asking for the same result wait for the first one instead of computing it again
+        CountDownLatch latch = new CountDownLatch(1);
+        CountDownLatch running = inFlight.putIfAbsent(file.getPath(), latch);
+        if (running != null) {
+            try {
+                running.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            cached = open(file);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        try {
+            misses.incrementAndGet();
+            Image result = filter.get();
+            put(result, file);
+            return result;
+        } finally {
+            if (running == null) {
+                inFlight.remove(file.getPath());
+                latch.countDown();
+            }
+        }
+    }
+
+    private static Image open(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            MappedImage cached = MappedImage.open(file);
+            file.setLastModified(System.currentTimeMillis());
+            hits.incrementAndGet();
+            return cached;
+        } catch (IOException e) {
+            // evicted or replaced in between
+            return null;
+        }
+    }
+
+    private static void put(Image result, File file) {
+        File currDir = file.getParentFile();
+        File tmpFile = new File(currDir, file.getName() + "." + ProcessHandle.current().pid()
+                + "-" + tmpCounter.incrementAndGet() + TMP_SUFFIX);
+        try {
+            if (!currDir.isDirectory() && !currDir.mkdirs() && !currDir.isDirectory()) {
+                throw new IOException("cannot create dir " + currDir.getPath());
+            }
+            MappedImage.save(result, tmpFile).release();
+            try {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("WARNING: cannot cache result to " + file.getPath());
+            tmpFile.delete();
+            return;
+        }
+        evict();
+    }
+
+    /**
+     * Deletes the least recently used results until the directory fits into the budget.
+     */
+    private static synchronized void evict() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(RAW_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        long[] modified = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            total += files[i].length();
+            modified[i] = files[i].lastModified();
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> modified[i]));
+        for (int i = 0; i < order.length && total > maxBytes; i++) {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Hex key of 16 digits for the pixels and 16 for the operation with its parameters.
+     */
+    public static String key(Image image, String operation, Object... params) {
+        StringBuilder call = new StringBuilder(operation);
+        for (Object param : params) {
+            call.append('|').append(param instanceof double[] ? Arrays.toString((double[]) param) : String.valueOf(param));
+        }
+        long callHash = SEED;
+        for (byte value : call.toString().getBytes(StandardCharsets.UTF_8)) {
+            callHash = mix(callHash ^ value);
+        }
+        return String.format("%016x%016x", hash(image), callHash);
+    }
+
+    /**
+     * 64-bit hash of the pixels with size and type, rows are hashed in parallel and combined in order.
+     */
+    public static long hash(Image image) {
+        int w = image.w;
+        long[] rowHashes = new long[image.h];
+        ParallelRuntime.parallelFor("hash of " + image.name, 0, image.h, ParallelRuntime.rowGrain(w), (start, end) -> {
+            int[] row = new int[w];
+            for (int y = start; y < end; y++) {
+                image.getRow(y, 0, w, row, 0);
+                long h = SEED ^ y;
+                for (int x = 0; x < w; x++) {
+                    h = Long.rotateLeft((h ^ (row[x] & 0xFFFFFFFFL)) * PRIME, 31);
+                }
+                rowHashes[y] = mix(h);
+            }
+        });
+        long h = mix(SEED ^ ((long) image.w << 32 | image.h));
+        h = mix(h ^ image.type);
+        for (long rowHash : rowHashes) {
+            h = mix(h ^ rowHash);
+        }
+        return h;
+    }
+
+    private static long mix(long h) {
+        h = (h ^ (h >>> 33)) * PRIME;
+        h = (h ^ (h >>> 29)) * SEED;
+        return h ^ (h >>> 32);
+    }
+
+    public static void resetStats() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    public static String stats() {
+        return "hits=" + hits.get()
+                + ", misses=" + misses.get()
+                + ", evictions=" + evictions.get();
+    }
+}
@@ -0,0 +1,153 @@
+package model;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * 8-bit grayscale image, one byte per pixel (row-major, stride w), a quarter of the int grid.
+ * Images that fit into one array keep it in {@link #pixels}, larger ones (e.g. the gray output of a tiled 60k x 60k
+ * scan) are split into bands of whole rows and {@link #pixels} is null; {@link #band} and {@link #offset} address
+ * a row in either case.
+ * The ARGB accessors expand a gray level g to 0xFFgggggg and take the blue channel back on writes,
+ * so geometric filters work on it unchanged.
+ */
+public class GrayImage extends Image {
+    public static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    public static final int BAND_SIZE = 1 << 30;
+
+    public byte[] pixels;
+    private byte[][] bands;
+    final public int bandRows;
+
+    public GrayImage(String name, int w, int h) {
+        this(name, allocate(w, h), w, h);
+    }
+
+    public GrayImage(String name, byte[] pixels, int w, int h) {
+        this(name, new byte[][]{pixels}, w, h);
+    }
+
+    private GrayImage(String name, byte[][] bands, int w, int h) {
+        super(name, w, h, BufferedImage.TYPE_BYTE_GRAY, (long) w * h);
+        this.bands = bands;
+        this.bandRows = bands.length == 1 ? Math.max(h, 1) : bandRows(w);
+        this.pixels = bands.length == 1 ? bands[0] : null;
+    }
+
+    private static int bandRows(int w) {
+        return Math.max(BAND_SIZE / Math.max(w, 1), 1);
+    }
+
+    private static byte[][] allocate(int w, int h) {
+        long size = (long) w * h;
+        if (size <= MAX_ARRAY_SIZE) {
+            return new byte[][]{new byte[(int) size]};
+        }
+        int bandRows = bandRows(w);
+        byte[][] bands = new byte[(h + bandRows - 1) / bandRows][];
+        for (int i = 0; i < bands.length; i++) {
+            bands[i] = new byte[Math.min(bandRows, h - i * bandRows) * w];
+        }
+        return bands;
+    }
+
+    public static int toARGB(int gray) {
+        return 0xFF000000 | gray << 16 | gray << 8 | gray;
+    }
+
+    @Override
+    public Image copy(int w, int h) {
+        return new GrayImage(this.name, w, h);
+    }
+
+    @Override
+    public Image copyWithGrid() {
+        byte[][] bands = new byte[this.bands.length][];
+        for (int i = 0; i < bands.length; i++) {
+            bands[i] = this.bands[i].clone();
+        }
+        return new GrayImage(this.name, bands, this.w, this.h);
+    }
+
+    /**
+     * Heap ARGB copy for backends that work on int grids only.
+     */
+    @Override
+    public Image toHeap() {
+        if (this.size > MAX_ARRAY_SIZE) {
+            throw new IllegalStateException("image " + this.name + " is too large for the heap: " + this.size);
+        }
+        Image newImage = new Image(this.name, this.w, this.h, this.type);
+        for (int y = 0; y < this.h; y++) {
+            getRow(y, 0, this.w, newImage.grid, y * this.w);
+        }
+        return newImage;
+    }
+
+    @Override
+    public Image fromHeap(Image heapImage) {
+        Image newImage = copy(heapImage.w, heapImage.h);
+        for (int y = 0; y < heapImage.h; y++) {
+            newImage.setRow(y, 0, heapImage.w, heapImage.grid, y * heapImage.w);
+        }
+        heapImage.release();
+        return newImage;
+    }
+
+    /**
+     * Array holding row y, the row starts at {@link #offset}(y).
+     */
+    public byte[] band(int y) {
+        return this.bands[y / this.bandRows];
+    }
+
+    public int offset(int y) {
+        return y % this.bandRows * this.w;
+    }
+
+    public int getGray(int x, int y) {
+        return band(y)[offset(y) + x] & 0xFF;
+    }
+
+    public void setGray(int x, int y, int gray) {
+        band(y)[offset(y) + x] = (byte) gray;
+    }
+
+    @Override
+    public int background() {
+        return toARGB(0);
+    }
+
+    @Override
+    public int get(int x, int y) {
+        return toARGB(getGray(x, y));
+    }
+
+    @Override
+    public void set(int x, int y, int color) {
+        setGray(x, y, color);
+    }
+
+    @Override
+    public void getRow(int y, int x, int length, int[] dst, int dstOffset) {
+        byte[] band = band(y);
+        int i = offset(y) + x;
+        for (int j = 0; j < length; j++) {
+            dst[dstOffset + j] = toARGB(band[i + j] & 0xFF);
+        }
+    }
+
+    @Override
+    public void setRow(int y, int x, int length, int[] src, int srcOffset) {
+        byte[] band = band(y);
+        int i = offset(y) + x;
+        for (int j = 0; j < length; j++) {
+            band[i + j] = (byte) src[srcOffset + j];
+        }
+    }
+
+    @Override
+    public void release() {
+        this.pixels = null;
+        this.bands = null;
+    }
+}
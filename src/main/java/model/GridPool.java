@@ -0,0 +1,92 @@
+package model;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-class pool of int[] grids. Classes split every power of two into {@link #CLASSES_PER_OCTAVE} steps, so a
+ * grid is at most 1/8 larger than requested. The pool keeps at most {@code mpiki.pool.bytes} bytes
+ * (a quarter of the max heap by default), grids above the budget are left to GC.
+ */
+public class GridPool {
+    public static final String POOL_BYTES_PROPERTY = "mpiki.pool.bytes";
+    private static final int CLASSES_PER_OCTAVE = 8;
+    private static final int MIN_POOLED_SIZE = 1 << 12;
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private static final ConcurrentHashMap<Integer, ConcurrentLinkedDeque<int[]>> classes = new ConcurrentHashMap<>();
+    private static final AtomicLong pooledBytes = new AtomicLong();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static volatile long maxPooledBytes = Long.getLong(POOL_BYTES_PROPERTY, Runtime.getRuntime().maxMemory() / 4);
+
+    public static void setMaxPooledBytes(long bytes) {
+        maxPooledBytes = bytes;
+        if (pooledBytes.get() > bytes) {
+            clear();
+        }
+    }
+
+    public static int classSize(int size) {
+        if (size < MIN_POOLED_SIZE) {
+            return size;
+        }
+        int step = Integer.highestOneBit(size - 1) / CLASSES_PER_OCTAVE;
+        long classSize = ((long) size + step - 1) / step * step;
+        return classSize > MAX_ARRAY_SIZE ? size : (int) classSize;
+    }
+
+    /**
+     * Zeroed grid of at least {@code size} elements.
+     */
+    public static int[] acquire(int size) {
+        if (size < MIN_POOLED_SIZE) {
+            return new int[size];
+        }
+        int classSize = classSize(size);
+        ConcurrentLinkedDeque<int[]> grids = classes.get(classSize);
+        int[] grid = grids == null ? null : grids.pollFirst();
+        if (grid == null) {
+            misses.incrementAndGet();
+            return new int[classSize];
+        }
+        pooledBytes.addAndGet(-(long) grid.length * Integer.BYTES);
+        hits.incrementAndGet();
+        Arrays.fill(grid, 0, size, 0);
+        return grid;
+    }
+
+    public static void release(int[] grid) {
+        if (grid.length < MIN_POOLED_SIZE || classSize(grid.length) != grid.length) {
+            return;
+        }
+        long bytes = (long) grid.length * Integer.BYTES;
+        if (pooledBytes.addAndGet(bytes) > maxPooledBytes) {
+            pooledBytes.addAndGet(-bytes);
+            return;
+        }
+        classes.computeIfAbsent(grid.length, k -> new ConcurrentLinkedDeque<>()).offerFirst(grid);
+    }
+
+    public static void clear() {
+        for (ConcurrentLinkedDeque<int[]> grids : classes.values()) {
+            int[] grid;
+            while ((grid = grids.pollFirst()) != null) {
+                pooledBytes.addAndGet(-(long) grid.length * Integer.BYTES);
+            }
+        }
+    }
+
+    public static void resetStats() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    public static String stats() {
+        return "hits=" + hits.get()
+                + ", misses=" + misses.get()
+                + ", pooled=" + pooledBytes.get() / (1 << 20) + " MB";
+    }
+}
@@ -1,17 +1,17 @@
 package model;
 
+import helpers.ImageBridge;
+
 import java.awt.image.BufferedImage;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
-public class Image {
+public class Image implements AutoCloseable {
     final public String name;
     public int[] grid;
     final public int w;
     final public int h;
     public int type;
-    final public int size;
+    final public long size;
+    private boolean pooled = false;
 
     public Image(String name, int[] grid, int w, int h, int type) {
         this.name = name;
@@ -19,101 +19,111 @@ public class Image {
         this.w = w;
         this.h = h;
         this.type = type;
-        this.size = this.grid.length;
+        this.size = (long) w * h;
     }
 
     public Image(String name, int w, int h, int type) {
         this.name = name;
-        this.grid = new int[w * h];
+        this.grid = GridPool.acquire(w * h);
         this.w = w;
         this.h = h;
         this.type = type;
-        this.size = this.grid.length;
+        this.size = (long) w * h;
+        this.pooled = true;
     }
 
     public Image(String name, BufferedImage image) {
         this.name = name;
-        this.grid = this.image2grid(image);
+        this.grid = ImageBridge.toGrid(image);
         this.w = image.getWidth();
         this.h = image.getHeight();
         this.type = image.getType();
-        this.size = this.grid.length;
+        this.size = (long) this.w * this.h;
+    }
+
+    /**
+     * Constructor for storages that keep pixels outside of {@link #grid}.
+     */
+    protected Image(String name, int w, int h, int type, long size) {
+        this.name = name;
+        this.grid = null;
+        this.w = w;
+        this.h = h;
+        this.type = type;
+        this.size = size;
     }
 
     public Image copy() {
-        return new Image(this.name, this.w, this.h, this.type);
+        return copy(this.w, this.h);
+    }
+
+    /**
+     * Empty image of the given size with the same storage as this one.
+     */
+    public Image copy(int w, int h) {
+        return new Image(this.name, w, h, this.type);
     }
 
     public Image copyWithGrid() {
         return new Image(this.name, this.grid.clone(), this.w, this.h, this.type);
     }
 
-    public BufferedImage getBufferedImage() {
-        int availableProcessors = Runtime.getRuntime().availableProcessors();
-        long timeout = 600;
-        TimeUnit timeUnit = TimeUnit.SECONDS;
-
-        BufferedImage image = new BufferedImage(this.w, this.h, this.type);
-        int chunkSize = this.size / availableProcessors;
-        ExecutorService executorService = Executors.newFixedThreadPool(availableProcessors);
-        boolean isCompleted = false;
-        try {
-            for (int chunkStart = 0; chunkStart < this.size; chunkStart += chunkSize) {
-                final int start = chunkStart;
-                executorService.submit(() -> {
-                    for (int i = start; i < this.size && i < start + chunkSize; i++) {
-                        int x = i % this.w;
-                        int y = i / this.w;
-                        image.setRGB(x, y, this.grid[i]);
-                    }
-                });
-            }
-            executorService.shutdown();
-            isCompleted = executorService.awaitTermination(timeout, timeUnit);
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.out.println("WARNING: getBufferedImage in " + this.name + " gone wrong");
-        }
-        if (!isCompleted) {
-            executorService.shutdownNow();
-            System.out.println("WARNING: getBufferedImage in " + this.name + " reached timeout");
-        }
-        return image;
-    }
-
-    private int[] image2grid(BufferedImage image) {
-        int availableProcessors = Runtime.getRuntime().availableProcessors();
-        long timeout = 600;
-        TimeUnit timeUnit = TimeUnit.SECONDS;
-
-        int w = image.getWidth();
-        int h = image.getHeight();
-        int gridSize = w * h;
-        int[] gridCurr = new int[gridSize];
-        int chunkSize = gridSize / availableProcessors;
-        ExecutorService executorService = Executors.newFixedThreadPool(availableProcessors);
-        boolean isCompleted = false;
-        try {
-            for (int chunkStart = 0; chunkStart < gridSize; chunkStart += chunkSize) {
-                final int start = chunkStart;
-                executorService.submit(() -> {
-                    for (int i = start; i < gridSize && i < start + chunkSize; i++) {
-                        int x = i % w;
-                        int y = i / w;
-                        gridCurr[i] = image.getRGB(x, y);
-                    }
-                });
-            }
-            executorService.shutdown();
-            isCompleted = executorService.awaitTermination(timeout, timeUnit);
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.out.println("WARNING: getBufferedImage in " + this.name + " gone wrong");
-        }
-        if (!isCompleted) {
-            executorService.shutdownNow();
-            System.out.println("WARNING: getBufferedImage in " + this.name + " reached timeout");
+    /**
+     * This image if its pixels are kept in {@link #grid}, otherwise a heap copy of it.
+     */
+    public Image toHeap() {
+        return this;
+    }
+
+    /**
+     * Result of a heap-only filter run on {@link #toHeap()} moved back into the storage of this image,
+     * the heap image itself where that storage is the heap (or too large to keep results in).
+     */
+    public Image fromHeap(Image heapImage) {
+        return heapImage;
+    }
+
+    /**
+     * Color of pixels that were never written, views fill pixels outside of their parent with it.
+     */
+    public int background() {
+        return 0;
+    }
+
+    public int get(int x, int y) {
+        return this.grid[y * this.w + x];
+    }
+
+    public void set(int x, int y, int color) {
+        this.grid[y * this.w + x] = color;
+    }
+
+    public void getRow(int y, int x, int length, int[] dst, int dstOffset) {
+        System.arraycopy(this.grid, y * this.w + x, dst, dstOffset, length);
+    }
+
+    public void setRow(int y, int x, int length, int[] src, int srcOffset) {
+        System.arraycopy(src, srcOffset, this.grid, y * this.w + x, length);
+    }
+
+    /**
+     * Returns the grid to {@link GridPool}, the image must not be used afterwards.
+     * Images whose grid is shared (e.g. wrapped into a BufferedImage) must not be released.
+     */
+    public void release() {
+        int[] grid = this.grid;
+        this.grid = null;
+        if (grid != null && this.pooled) {
+            GridPool.release(grid);
         }
-        return gridCurr;
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+
+    public BufferedImage getBufferedImage() {
+        return ImageBridge.toBufferedImage(this);
     }
 }
@@ -0,0 +1,175 @@
+package model;
+
+/**
+ * Window of w x h pixels over a parent image: pixel (x, y) of the view is pixel (x + offsetX, y + offsetY)
+ * of the parent, pixels outside of the clip rectangle (always inside the parent) read as the parent's
+ * {@link #background()}. Views of views are flattened to the same parent, so crop, translation and center
+ * are O(1) no matter how they are chained.
+ * A view is read-only until the first write or export, which copies it into the parent's storage.
+ * A view of a whole heap image shares the parent's {@link #grid} for reading, so grid-based fast paths and
+ * {@link #toHeap()} work on it without a copy; callers must not write to that grid directly.
+ */
+public class ImageView extends Image {
+    final public Image parent;
+    final public int offsetX;
+    final public int offsetY;
+    private final int clipX0;
+    private final int clipY0;
+    private final int clipX1;
+    private final int clipY1;
+    private final boolean ownsParent;
+    private Image data;
+
+    public ImageView(Image parent, int offsetX, int offsetY, int w, int h) {
+        this(parent, offsetX, offsetY, w, h, false);
+    }
+
+    /**
+     * @param ownsParent if set, {@link #release()} releases the parent as well
+     */
+    public ImageView(Image parent, int offsetX, int offsetY, int w, int h, boolean ownsParent) {
+        super(parent.name, w, h, parent.type, (long) w * h);
+        int clipX0 = 0;
+        int clipY0 = 0;
+        int clipX1 = parent.w;
+        int clipY1 = parent.h;
+        if (parent instanceof ImageView && ((ImageView) parent).data == null) {
+            ImageView view = (ImageView) parent;
+            offsetX += view.offsetX;
+            offsetY += view.offsetY;
+            clipX0 = Math.max(view.clipX0, view.offsetX);
+            clipY0 = Math.max(view.clipY0, view.offsetY);
+            clipX1 = Math.min(view.clipX1, view.offsetX + view.w);
+            clipY1 = Math.min(view.clipY1, view.offsetY + view.h);
+            parent = view.parent;
+            ownsParent = false;
+        } else if (parent instanceof ImageView) {
+            parent = ((ImageView) parent).data;
+        }
+        this.parent = parent;
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        this.clipX0 = clipX0;
+        this.clipY0 = clipY0;
+        this.clipX1 = Math.max(clipX0, clipX1);
+        this.clipY1 = Math.max(clipY0, clipY1);
+        this.ownsParent = ownsParent;
+        if (offsetX == 0 && offsetY == 0 && w == parent.w && h == parent.h
+                && this.clipX0 == 0 && this.clipY0 == 0 && this.clipX1 == w && this.clipY1 == h) {
+            this.grid = parent.grid;
+        }
+    }
+
+    /**
+     * Copy of the view in the parent's storage, kept and used for all further reads and writes.
+     */
+    public synchronized Image materialize() {
+        if (this.data == null) {
+            this.data = copyPixels();
+            this.grid = this.data.grid;
+        }
+        return this.data;
+    }
+
+    private Image copyPixels() {
+        Image newImage = this.parent.copy(this.w, this.h);
+        int[] row = new int[this.w];
+        for (int y = 0; y < this.h; y++) {
+            getRow(y, 0, this.w, row, 0);
+            newImage.setRow(y, 0, this.w, row, 0);
+        }
+        return newImage;
+    }
+
+    @Override
+    public Image copy(int w, int h) {
+        return this.parent.copy(w, h);
+    }
+
+    @Override
+    public Image copyWithGrid() {
+        return copyPixels();
+    }
+
+    @Override
+    public Image toHeap() {
+        Image data = this.data;
+        if (data != null) {
+            return data.toHeap();
+        }
+        return this.grid != null ? this : copyPixels().toHeap();
+    }
+
+    @Override
+    public Image fromHeap(Image heapImage) {
+        return this.parent.fromHeap(heapImage);
+    }
+
+    @Override
+    public int background() {
+        return this.parent.background();
+    }
+
+    @Override
+    public int get(int x, int y) {
+        Image data = this.data;
+        if (data != null) {
+            return data.get(x, y);
+        }
+        int parentX = x + this.offsetX;
+        int parentY = y + this.offsetY;
+        if (parentX < this.clipX0 || parentX >= this.clipX1 || parentY < this.clipY0 || parentY >= this.clipY1) {
+            return this.parent.background();
+        }
+        return this.parent.get(parentX, parentY);
+    }
+
+    @Override
+    public void set(int x, int y, int color) {
+        materialize().set(x, y, color);
+    }
+
+    @Override
+    public void getRow(int y, int x, int length, int[] dst, int dstOffset) {
+        Image data = this.data;
+        if (data != null) {
+            data.getRow(y, x, length, dst, dstOffset);
+            return;
+        }
+        int parentY = y + this.offsetY;
+        int parentX = x + this.offsetX;
+        int from = parentY < this.clipY0 || parentY >= this.clipY1 ? parentX + length : Math.max(parentX, this.clipX0);
+        int to = Math.max(from, Math.min(parentX + length, this.clipX1));
+        int background = this.parent.background();
+        for (int i = parentX; i < from; i++) {
+            dst[dstOffset + i - parentX] = background;
+        }
+        if (to > from) {
+            this.parent.getRow(parentY, from, to - from, dst, dstOffset + from - parentX);
+        }
+        for (int i = to; i < parentX + length; i++) {
+            dst[dstOffset + i - parentX] = background;
+        }
+    }
+
+    @Override
+    public void setRow(int y, int x, int length, int[] src, int srcOffset) {
+        materialize().setRow(y, x, length, src, srcOffset);
+    }
+
+    /**
+     * Releases the materialized copy and, for views owning their parent, the parent.
+     */
+    @Override
+    public void release() {
+        Image data = this.data;
+        this.data = null;
+        this.grid = null;
+        if (data != null) {
+            data.release();
+        }
+        if (this.ownsParent) {
+            this.parent.release();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Image backed by a memory-mapped .mpimg file: 16 bytes of header (magic, w, h, type as little-endian ints)
+ * followed by w * h packed ARGB pixels as little-endian ints. Tiles are mapped separately, so the file is read
+ * lazily by the OS and its pages are shared through the page cache between all processes mapping it.
+ */
+public class MappedImage extends TiledImage {
+    public static final int MAGIC = 0x4D49504D; // "MPIM"
+    public static final int HEADER_SIZE = 16;
+    private static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private final MappedByteBuffer[] buffers;
+
+    private MappedImage(String name, int w, int h, int type, MappedByteBuffer[] buffers) {
+        super(name, w, h, type, asIntBuffers(buffers));
+        this.buffers = buffers;
+    }
+
+    /**
+     * Maps an existing file read-only, {@link #copyWithGrid()} gives a writable off-heap copy.
+     */
+    public static MappedImage open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(BYTE_ORDER);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+                throw new IOException("not an mpimg file: " + file.getPath());
+            }
+            int w = header.getInt();
+            int h = header.getInt();
+            int type = header.getInt();
+            long size = (long) w * h;
+            if (w <= 0 || h <= 0 || channel.size() < HEADER_SIZE + size * Integer.BYTES) {
+                throw new IOException("truncated mpimg file: " + file.getPath());
+            }
+            return new MappedImage(file.getName(), w, h, type, map(channel, FileChannel.MapMode.READ_ONLY, size));
+        }
+    }
+
+    /**
+     * Creates (or truncates) a file of the given size and maps it for writing.
+     */
+    public static MappedImage create(File file, String name, int w, int h, int type) throws IOException {
+        long size = (long) w * h;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            raf.setLength(HEADER_SIZE + size * Integer.BYTES);
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(BYTE_ORDER);
+            header.putInt(MAGIC).putInt(w).putInt(h).putInt(type).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            return new MappedImage(name, w, h, type, map(channel, FileChannel.MapMode.READ_WRITE, size));
+        }
+    }
+
+    public static MappedImage save(Image image, File file) throws IOException {
+        MappedImage newImage = create(file, image.name, image.w, image.h, image.type);
+        int[] row = new int[image.w];
+        for (int y = 0; y < image.h; y++) {
+            image.getRow(y, 0, image.w, row, 0);
+            newImage.setRow(y, 0, image.w, row, 0);
+        }
+        newImage.force();
+        return newImage;
+    }
+
+    /**
+     * Flushes pixels written to a mapping created by {@link #create} to the file.
+     */
+    public void force() {
+        for (MappedByteBuffer buffer : this.buffers) {
+            if (!buffer.isReadOnly()) {
+                buffer.force();
+            }
+        }
+    }
+
+    private static MappedByteBuffer[] map(FileChannel channel, FileChannel.MapMode mode, long size) throws IOException {
+        MappedByteBuffer[] buffers = new MappedByteBuffer[tilesCount(size)];
+        for (int i = 0; i < buffers.length; i++) {
+            long start = (long) i << TILE_SHIFT;
+            long tileSize = Math.min(TILE_SIZE, size - start);
+            buffers[i] = channel.map(mode, HEADER_SIZE + start * Integer.BYTES, tileSize * Integer.BYTES);
+        }
+        return buffers;
+    }
+
+    private static IntBuffer[] asIntBuffers(MappedByteBuffer[] buffers) {
+        IntBuffer[] tiles = new IntBuffer[buffers.length];
+        for (int i = 0; i < buffers.length; i++) {
+            tiles[i] = buffers[i].order(BYTE_ORDER).asIntBuffer();
+        }
+        return tiles;
+    }
+}
@@ -0,0 +1,113 @@
+package model;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * 1-bit mask, packed 8 pixels per byte with the leftmost pixel in the highest bit and every row starting
+ * on a byte boundary ({@link #stride} bytes per row) - the TYPE_BYTE_BINARY layout, so it is exported as is.
+ * The ARGB accessors give opaque white for set bits and opaque black otherwise, any non-black color sets a bit.
+ */
+public class MaskImage extends Image {
+    public static final int WHITE = 0xFFFFFFFF;
+    public static final int BLACK = 0xFF000000;
+
+    public byte[] bits;
+    final public int stride;
+
+    public MaskImage(String name, int w, int h) {
+        this(name, new byte[stride(w) * h], w, h);
+    }
+
+    public MaskImage(String name, byte[] bits, int w, int h) {
+        super(name, w, h, BufferedImage.TYPE_BYTE_BINARY, (long) w * h);
+        this.bits = bits;
+        this.stride = stride(w);
+    }
+
+    public static int stride(int w) {
+        return (w + 7) >> 3;
+    }
+
+    @Override
+    public Image copy(int w, int h) {
+        return new MaskImage(this.name, w, h);
+    }
+
+    @Override
+    public Image copyWithGrid() {
+        return new MaskImage(this.name, this.bits.clone(), this.w, this.h);
+    }
+
+    /**
+     * Heap ARGB copy for backends that work on int grids only.
+     */
+    @Override
+    public Image toHeap() {
+        Image newImage = new Image(this.name, this.w, this.h, this.type);
+        for (int y = 0; y < this.h; y++) {
+            getRow(y, 0, this.w, newImage.grid, y * this.w);
+        }
+        return newImage;
+    }
+
+    @Override
+    public Image fromHeap(Image heapImage) {
+        Image newImage = copy(heapImage.w, heapImage.h);
+        for (int y = 0; y < heapImage.h; y++) {
+            newImage.setRow(y, 0, heapImage.w, heapImage.grid, y * heapImage.w);
+        }
+        heapImage.release();
+        return newImage;
+    }
+
+    public boolean getBit(int x, int y) {
+        return (this.bits[y * this.stride + (x >> 3)] & (0x80 >>> (x & 7))) != 0;
+    }
+
+    /**
+     * Not safe to call concurrently for pixels sharing a byte, row-parallel writers never do that.
+     */
+    public void setBit(int x, int y, boolean value) {
+        int i = y * this.stride + (x >> 3);
+        int bit = 0x80 >>> (x & 7);
+        this.bits[i] = (byte) (value ? this.bits[i] | bit : this.bits[i] & ~bit);
+    }
+
+    @Override
+    public int background() {
+        return BLACK;
+    }
+
+    @Override
+    public int get(int x, int y) {
+        return getBit(x, y) ? WHITE : BLACK;
+    }
+
+    /**
+     * Synchronized since forward-mapped filters (shearing) may write one row from several threads.
+     */
+    @Override
+    public synchronized void set(int x, int y, int color) {
+        setBit(x, y, (color & 0xFFFFFF) != 0);
+    }
+
+    @Override
+    public void getRow(int y, int x, int length, int[] dst, int dstOffset) {
+        int offset = y * this.stride;
+        for (int j = 0; j < length; j++, x++) {
+            dst[dstOffset + j] = (this.bits[offset + (x >> 3)] & (0x80 >>> (x & 7))) != 0 ? WHITE : BLACK;
+        }
+    }
+
+    @Override
+    public void setRow(int y, int x, int length, int[] src, int srcOffset) {
+        for (int j = 0; j < length; j++, x++) {
+            setBit(x, y, (src[srcOffset + j] & 0xFFFFFF) != 0);
+        }
+    }
+
+    @Override
+    public void release() {
+        this.bits = null;
+    }
+}
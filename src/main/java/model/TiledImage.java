@@ -0,0 +1,124 @@
+package model;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Image kept off-heap in fixed-size tiles of direct memory, pixels are addressed by a long index y * w + x,
+ * so the size is not limited by int[] and the pixels do not take part in GC.
+ * Direct memory is limited by -XX:MaxDirectMemorySize and freed when the tiles become unreachable.
+ * Tiles are direct buffers rather than java.lang.foreign segments: on JDK 21 the FFM API is still a preview, so it
+ * would need --enable-preview for javac and for every run that loads this class.
+ */
+public class TiledImage extends Image {
+    public static final int TILE_SHIFT = 22;
+    public static final int TILE_SIZE = 1 << TILE_SHIFT;
+    private static final int TILE_MASK = TILE_SIZE - 1;
+
+    protected final IntBuffer[] tiles;
+
+    public TiledImage(String name, int w, int h, int type) {
+        this(name, w, h, type, allocate((long) w * h));
+    }
+
+    protected TiledImage(String name, int w, int h, int type, IntBuffer[] tiles) {
+        super(name, w, h, type, (long) w * h);
+        this.tiles = tiles;
+    }
+
+    public static TiledImage of(Image image) {
+        TiledImage newImage = new TiledImage(image.name, image.w, image.h, image.type);
+        int[] row = new int[image.w];
+        for (int y = 0; y < image.h; y++) {
+            image.getRow(y, 0, image.w, row, 0);
+            newImage.setRow(y, 0, image.w, row, 0);
+        }
+        return newImage;
+    }
+
+    private static IntBuffer[] allocate(long size) {
+        IntBuffer[] tiles = new IntBuffer[tilesCount(size)];
+        for (int i = 0; i < tiles.length; i++) {
+            int tileSize = (int) Math.min(TILE_SIZE, size - ((long) i << TILE_SHIFT));
+            tiles[i] = ByteBuffer.allocateDirect(tileSize * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+        return tiles;
+    }
+
+    public static int tilesCount(long size) {
+        return (int) ((size + TILE_MASK) >>> TILE_SHIFT);
+    }
+
+    @Override
+    public Image copy(int w, int h) {
+        return new TiledImage(this.name, w, h, this.type);
+    }
+
+    @Override
+    public Image copyWithGrid() {
+        TiledImage newImage = new TiledImage(this.name, this.w, this.h, this.type);
+        for (int i = 0; i < this.tiles.length; i++) {
+            newImage.tiles[i].put(0, this.tiles[i], 0, this.tiles[i].capacity());
+        }
+        return newImage;
+    }
+
+    @Override
+    public Image toHeap() {
+        if (this.size > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("image " + this.name + " is too large for the heap: " + this.size);
+        }
+        Image newImage = new Image(this.name, this.w, this.h, this.type);
+        for (int y = 0; y < this.h; y++) {
+            getRow(y, 0, this.w, newImage.grid, y * this.w);
+        }
+        return newImage;
+    }
+
+    public int get(long i) {
+        return this.tiles[(int) (i >>> TILE_SHIFT)].get((int) (i & TILE_MASK));
+    }
+
+    public void set(long i, int color) {
+        this.tiles[(int) (i >>> TILE_SHIFT)].put((int) (i & TILE_MASK), color);
+    }
+
+    @Override
+    public int get(int x, int y) {
+        return get((long) y * this.w + x);
+    }
+
+    @Override
+    public void set(int x, int y, int color) {
+        set((long) y * this.w + x, color);
+    }
+
+    @Override
+    public void getRow(int y, int x, int length, int[] dst, int dstOffset) {
+        long i = (long) y * this.w + x;
+        while (length > 0) {
+            IntBuffer tile = this.tiles[(int) (i >>> TILE_SHIFT)];
+            int offset = (int) (i & TILE_MASK);
+            int count = Math.min(length, tile.capacity() - offset);
+            tile.get(offset, dst, dstOffset, count);
+            i += count;
+            dstOffset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public void setRow(int y, int x, int length, int[] src, int srcOffset) {
+        long i = (long) y * this.w + x;
+        while (length > 0) {
+            IntBuffer tile = this.tiles[(int) (i >>> TILE_SHIFT)];
+            int offset = (int) (i & TILE_MASK);
+            int count = Math.min(length, tile.capacity() - offset);
+            tile.put(offset, src, srcOffset, count);
+            i += count;
+            srcOffset += count;
+            length -= count;
+        }
+    }
+}